@@ -0,0 +1,139 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+// loads images off the event thread, several at once, already scaled to the size they are shown at
+// scaled images are kept on disk as raw pixels, so after the first run an image is read without decoding
+// or scaling it again
+public class AssetLoader {
+
+	private static final int MAGIC = 0x54494D47;
+
+	private final Path cacheDir;
+	private final ExecutorService pool;
+
+	// the cache lives in the directory given by tetris.cacheDir, or in .tetris/cache in the home directory
+	public AssetLoader() {
+		this(Paths.get(System.getProperty("tetris.cacheDir",
+				System.getProperty("user.home") + File.separator + ".tetris" + File.separator + "cache")));
+	}
+
+	public AssetLoader(Path cacheDir) {
+		this.cacheDir = cacheDir;
+		int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "tetris-assets");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public CompletableFuture<BufferedImage> loadScaled(String fileName, int width, int height) {
+		return CompletableFuture.supplyAsync(() -> {
+			File file = new File(fileName);
+			// the name changes whenever the file does, so a stale image is never read
+			Path cached = cacheDir.resolve(file.getName() + "-" + width + "x" + height + "-"
+					+ Long.toHexString(file.lastModified()) + "-" + file.length() + ".argb");
+			try {
+				BufferedImage image = readCached(cached, width, height);
+				if (image != null)
+					return image;
+			} catch (IOException e) {
+				// a damaged cache file is made again
+			}
+			try {
+				BufferedImage source = ImageIO.read(file);
+				if (source == null)
+					throw new IOException("not an image: " + fileName);
+				BufferedImage image = scale(source, width, height);
+				writeCached(cached, image);
+				return image;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}, pool);
+	}
+
+	// halves the image until it is less than twice the target size, then scales it the rest of the way,
+	// which keeps the detail that a single bilinear step would skip over
+	static BufferedImage scale(BufferedImage source, int width, int height) {
+		BufferedImage image = source;
+		int w = source.getWidth(), h = source.getHeight();
+		do {
+			w = Math.max(width, w / 2);
+			h = Math.max(height, h / 2);
+			if (w < 2 * width && h < 2 * height) {
+				w = width;
+				h = height;
+			}
+			BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = next.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(image, 0, 0, w, h, null);
+			g.dispose();
+			image = next;
+		} while (w != width || h != height);
+		return image;
+	}
+
+	private static BufferedImage readCached(Path path, int width, int height) throws IOException {
+		if (!Files.exists(path))
+			return null;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != width
+					|| buffer.getInt() != height || buffer.remaining() != width * height * 4)
+				return null;
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			buffer.asIntBuffer().get(pixels);
+			return image;
+		}
+	}
+
+	// written to a temporary file first, so a reader never sees half of one
+	private static void writeCached(Path path, BufferedImage image) {
+		try {
+			Files.createDirectories(path.getParent());
+			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			ByteBuffer buffer = ByteBuffer.allocate(12 + pixels.length * 4);
+			buffer.putInt(MAGIC).putInt(image.getWidth()).putInt(image.getHeight());
+			IntBuffer ints = buffer.asIntBuffer();
+			ints.put(pixels);
+			buffer.position(buffer.capacity());
+			buffer.flip();
+			Path temp = Files.createTempFile(path.getParent(), "asset", ".tmp");
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// the image is still shown, it is only scaled again next time
+			e.printStackTrace();
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+}
@@ -0,0 +1,260 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sound.sampled.*;
+
+// plays the music and the sound effects through one SourceDataLine, mixed on a thread of its own
+// sound files are decoded once, off the event thread, into a cache of samples in the format of the line
+// the effects are made up from tones when the engine is created and are started by the changes of the model
+public class AudioEngine implements BlockObserver, Runnable {
+
+	public enum Effect {
+		MOVE, ROTATE, LOCK, LINE_CLEAR, TETRIS, LEVEL_UP
+	}
+
+	// 16 bit stereo, written to the line a few milliseconds at a time
+	static final float SAMPLE_RATE = 44100;
+	private static final int CHUNK_FRAMES = 128;
+	private static final int LINE_CHUNKS = 4;
+	private static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 2, true, false);
+
+	// decoded sound files, as interleaved stereo samples
+	private final ConcurrentHashMap<String, CompletableFuture<short[]>> cache =
+			new ConcurrentHashMap<String, CompletableFuture<short[]>>();
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "tetris-audio-loader");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final short[][] effects = new short[Effect.values().length][];
+
+	// handed from any thread to the mixer without locking
+	// one bit for every effect started since the mixer last looked
+	private final AtomicInteger triggered = new AtomicInteger();
+	private final AtomicReference<short[]> music = new AtomicReference<short[]>();
+	private final AtomicBoolean rewind = new AtomicBoolean();
+	private volatile boolean musicPlaying;
+	private volatile boolean running;
+
+	// only used by the mixer thread
+	// the sample each effect has reached, -1 when it is not playing
+	private final int[] effectPositions = new int[Effect.values().length];
+	private int musicPosition;
+
+	public AudioEngine() {
+		effects[Effect.MOVE.ordinal()] = tones(new double[] {880}, 12, 0.15);
+		effects[Effect.ROTATE.ordinal()] = tones(new double[] {660, 990}, 15, 0.15);
+		effects[Effect.LOCK.ordinal()] = tones(new double[] {140}, 50, 0.35);
+		effects[Effect.LINE_CLEAR.ordinal()] = tones(new double[] {660, 880, 1320}, 50, 0.3);
+		effects[Effect.TETRIS.ordinal()] = tones(new double[] {523, 659, 784, 1047, 1319}, 70, 0.3);
+		effects[Effect.LEVEL_UP.ordinal()] = tones(new double[] {392, 523, 659, 784, 1047, 784, 1047}, 45, 0.3);
+		Arrays.fill(effectPositions, -1);
+	}
+
+	// starts the mixer, the line is opened on the mixer thread so the caller never waits for the device
+	public void start() {
+		running = true;
+		Thread mixer = new Thread(this, "tetris-audio");
+		mixer.setDaemon(true);
+		mixer.setPriority(Thread.MAX_PRIORITY);
+		mixer.start();
+	}
+
+	public void close() {
+		running = false;
+		loader.shutdown();
+	}
+
+	// decodes a sound file in the background, once
+	public CompletableFuture<short[]> load(String fileName) {
+		return cache.computeIfAbsent(fileName, f -> CompletableFuture.supplyAsync(() -> {
+			try {
+				return decode(new File(f));
+			} catch (Exception e) {
+				e.printStackTrace();
+				return null;
+			}
+		}, loader));
+	}
+
+	// plays the music from the start and loops it, as soon as it has been decoded
+	public void playMusic(String fileName) {
+		music.set(null);
+		rewind.set(true);
+		musicPlaying = true;
+		load(fileName).thenAccept(samples -> {
+			// a later call may have asked for other music while this one was loading
+			if (musicPlaying && samples != null) {
+				music.compareAndSet(null, samples);
+			}
+		});
+	}
+
+	// pauses and resumes on the exact sample the music stopped at
+	public void pauseMusic() {
+		musicPlaying = false;
+	}
+
+	public void resumeMusic() {
+		musicPlaying = true;
+	}
+
+	// the next playMusic starts from the beginning
+	public void stopMusic() {
+		musicPlaying = false;
+		rewind.set(true);
+	}
+
+	public boolean isMusicLoaded() {
+		return music.get() != null;
+	}
+
+	// safe to call from any thread, it never blocks
+	public void play(Effect effect) {
+		triggered.getAndUpdate(bits -> bits | 1 << effect.ordinal());
+	}
+
+	// one sound per step of the model, the biggest thing that happened wins
+	@Override
+	public void blocksChanged(FrameDelta delta) {
+		if (delta.isLevelUp()) {
+			play(Effect.LEVEL_UP);
+		} else if (delta.getLinesCleared() >= 4) {
+			play(Effect.TETRIS);
+		} else if (delta.getLinesCleared() > 0) {
+			play(Effect.LINE_CLEAR);
+		} else if (delta.isLocked()) {
+			play(Effect.LOCK);
+		} else if (delta.isRotated()) {
+			play(Effect.ROTATE);
+		} else if (delta.isMoved() && delta.getInput() != TetrisInput.SOFT_DROP) {
+			play(Effect.MOVE);
+		}
+	}
+
+	@Override
+	public void run() {
+		SourceDataLine line;
+		try {
+			line = AudioSystem.getSourceDataLine(FORMAT);
+			line.open(FORMAT, CHUNK_FRAMES * 4 * LINE_CHUNKS);
+		} catch (Exception e) {
+			// no sound device, the game plays silently
+			e.printStackTrace();
+			return;
+		}
+		line.start();
+		int[] mix = new int[CHUNK_FRAMES * 2];
+		byte[] out = new byte[CHUNK_FRAMES * 4];
+		while (running) {
+			mixChunk(mix);
+			for (int i = 0; i < mix.length; i++) {
+				int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+				out[2 * i] = (byte) s;
+				out[2 * i + 1] = (byte) (s >> 8);
+			}
+			// blocks until the line has room, which is what paces the mixer
+			line.write(out, 0, out.length);
+		}
+		line.drain();
+		line.close();
+	}
+
+	// mixes the next chunk of every playing sound into the buffer
+	void mixChunk(int[] mix) {
+		Arrays.fill(mix, 0);
+		int started = triggered.getAndSet(0);
+		for (int e = 0; e < effects.length; e++) {
+			if ((started & 1 << e) != 0) {
+				effectPositions[e] = 0;
+			}
+			int position = effectPositions[e];
+			if (position < 0)
+				continue;
+			short[] samples = effects[e];
+			int n = Math.min(mix.length, samples.length - position);
+			for (int i = 0; i < n; i++) {
+				mix[i] += samples[position + i];
+			}
+			effectPositions[e] = position + n < samples.length ? position + n : -1;
+		}
+
+		if (rewind.getAndSet(false)) {
+			musicPosition = 0;
+		}
+		short[] samples = music.get();
+		if (samples != null && musicPlaying && samples.length > 0) {
+			// the music loops, the position only moves while it plays
+			for (int i = 0; i < mix.length; i++) {
+				mix[i] += samples[musicPosition];
+				if (++musicPosition == samples.length) {
+					musicPosition = 0;
+				}
+			}
+		}
+	}
+
+	// reads a sound file into interleaved stereo samples at the rate of the line
+	static short[] decode(File file) throws Exception {
+		try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+			AudioFormat source = in.getFormat();
+			int channels = source.getChannels();
+			AudioFormat pcm = new AudioFormat(source.getSampleRate(), 16, channels, true, false);
+			byte[] bytes;
+			try (AudioInputStream converted = AudioSystem.getAudioInputStream(pcm, in)) {
+				bytes = converted.readAllBytes();
+			}
+			int frames = bytes.length / (2 * channels);
+			// linear interpolation between the source frames, the first two channels become left and right
+			double step = source.getSampleRate() / SAMPLE_RATE;
+			int outFrames = (int) (frames / step);
+			short[] samples = new short[outFrames * 2];
+			for (int i = 0; i < outFrames; i++) {
+				double at = i * step;
+				int f = (int) at;
+				double t = at - f;
+				int g = Math.min(f + 1, frames - 1);
+				for (int c = 0; c < 2; c++) {
+					int ch = Math.min(c, channels - 1);
+					int a = sample(bytes, f * channels + ch);
+					int b = sample(bytes, g * channels + ch);
+					samples[2 * i + c] = (short) (a + (b - a) * t);
+				}
+			}
+			return samples;
+		}
+	}
+
+	private static int sample(byte[] bytes, int index) {
+		return (short) ((bytes[2 * index] & 0xFF) | bytes[2 * index + 1] << 8);
+	}
+
+	// a run of short tones, each fading out, as interleaved stereo samples
+	static short[] tones(double[] frequencies, int millisEach, double volume) {
+		int each = (int) (SAMPLE_RATE * millisEach / 1000);
+		short[] samples = new short[frequencies.length * each * 2];
+		for (int k = 0; k < frequencies.length; k++) {
+			for (int i = 0; i < each; i++) {
+				double t = i / SAMPLE_RATE;
+				double envelope = Math.min(1, i / 40.0) * (1 - (double) i / each);
+				double wave = Math.sin(2 * Math.PI * frequencies[k] * t);
+				// a little of the third harmonic gives the tone an edge
+				wave += Math.sin(6 * Math.PI * frequencies[k] * t) / 3;
+				short s = (short) (wave * envelope * volume * Short.MAX_VALUE * 0.75);
+				int at = 2 * (k * each + i);
+				samples[at] = s;
+				samples[at + 1] = s;
+			}
+		}
+		return samples;
+	}
+
+}
@@ -0,0 +1,77 @@
+import java.util.SplittableRandom;
+
+// deals every block type a fixed number of times per bag, in a shuffled order
+// one copy of each type is the standard seven bag, two copies make a fourteen bag
+public class BagRandomizer implements PieceRandomizer {
+
+	static final String SEVEN_BAG = "7-bag", FOURTEEN_BAG = "14-bag";
+
+	private final long seed;
+	private final SplittableRandom random;
+
+	private final int[] bag;
+	private int position;
+	private long dealt;
+
+	public BagRandomizer(int copies, long seed) {
+		this.seed = seed;
+		random = new SplittableRandom(seed);
+		bag = new int[7 * copies];
+		for (int i = 0; i < bag.length; i++) {
+			bag[i] = i % 7 + 1;
+		}
+		// start with an empty bag so the first call shuffles
+		position = bag.length;
+	}
+
+	@Override
+	public int next() {
+		if (position == bag.length) {
+			shuffle();
+			position = 0;
+		}
+		dealt++;
+		return bag[position++];
+	}
+
+	// only the shuffles use the random numbers, so a whole bag is skipped with one shuffle
+	@Override
+	public void skip(long count) {
+		dealt += count;
+		while (count > 0) {
+			if (position == bag.length) {
+				shuffle();
+				position = 0;
+			}
+			int n = (int) Math.min(count, bag.length - position);
+			position += n;
+			count -= n;
+		}
+	}
+
+	// Fisher-Yates shuffle, one random number per block instead of retrying until an unused one comes up
+	private void shuffle() {
+		for (int i = bag.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int temp = bag[i];
+			bag[i] = bag[j];
+			bag[j] = temp;
+		}
+	}
+
+	@Override
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public long getDealt() {
+		return dealt;
+	}
+
+	@Override
+	public String getName() {
+		return bag.length == 7 ? SEVEN_BAG : FOURTEEN_BAG;
+	}
+
+}
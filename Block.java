@@ -1,3 +1,4 @@
+import java.util.Arrays;
 
 public class Block {
 	
@@ -10,13 +11,28 @@ public class Block {
 				O_BLOCK = 4,
 				S_BLOCK = 5,
 				T_BLOCK = 6,
-				Z_BLOCK = 7;
+				Z_BLOCK = 7,
+				// squares of garbage rows sent by an opponent, never a block of its own
+				GARBAGE_BLOCK = 8;
+	
+	// every orientation of every block type, built once and shared by all blocks
+	private static final Shape[][] SHAPES = new Shape[8][4];
+	
+	static {
+		for (int type = 0; type <= Z_BLOCK; type++) {
+			int[][] dim = startingDimensions(type);
+			for (int o = 0; o < 4; o++) {
+				SHAPES[type][o] = new Shape(type, dim);
+				dim = rotateClockwise(dim);
+			}
+		}
+	}
 	
 	private int blockType;
 	
 	private int row, col;
 	
-	private int[][] dimensions;
+	private Shape shape;
 	
 	private int orientation;
 	
@@ -26,10 +42,46 @@ public class Block {
 		// each block starts at the top row in the middle column
 		this.blockType = blockType;
 		this.row = 0;
-		this.col = 4;
+		this.col = spawnColumn(TetrisBoard.COLUMNS);
 		orientation = 0;
 		active = true;
-		
+		shape = getShape(blockType, 0);
+	}
+	
+	// alternate constructor used to make custom blocks to test movement
+	public Block(int blockType, int row, int col, int orientation) {
+		this(blockType);
+		this.row = row;
+		this.col = col;
+		setOrientation(orientation);
+	}
+	
+	// alternate constructor used to make the shadow block
+	public Block(int blockType, int orientation, boolean shadow) {
+		this(blockType);
+		setOrientation(orientation);
+		if (shadow) {
+			this.blockType = SHADOW_BLOCK;
+		}
+	}
+	
+	// the column new blocks start in on a board of the given width
+	public static int spawnColumn(int columns) {
+		return columns / 2 - 1;
+	}
+	
+	// looks up one orientation of a block type in the shared table
+	public static Shape getShape(int blockType, int orientation) {
+		if (blockType < 0 || blockType > Z_BLOCK) {
+			// should be unreachable
+			blockType = 0;
+		}
+		return SHAPES[blockType][orientation & 3];
+	}
+	
+	// the squares each block type occupies before it is rotated
+	private static int[][] startingDimensions(int blockType) {
+		int[][] dimensions;
 		switch(blockType) {
 			case I_BLOCK:
 				dimensions = new int[4][4];
@@ -85,119 +137,81 @@ public class Block {
 				dimensions = new int[1][1];
 				break;
 		}
+		return dimensions;
 	}
 	
-	// alternate constructor used to make custom blocks to test rotation
-	public Block(int blockType, int row, int col, int[][] dimensions) {
-		this(blockType);
-		this.row = row;
-		this.col = col;
-		this.dimensions = dimensions;
-	}
-	
-	// alternate constructor used to make the shadow block
-	public Block(int blockType, int orientation, boolean shadow) {
-		this(blockType);
-		for (int i = 0; i < orientation; i++) {
-			this.rotate();
-		}
-		if (shadow) {
-			this.blockType = SHADOW_BLOCK;
-			for (int i = 0; i < dimensions.length; i++) {
-				for (int j = 0; j < dimensions[0].length; j++) {
-					if (dimensions[i][j] > 0) {
-						dimensions[i][j] = SHADOW_BLOCK;
-					}
-				}
+	private static int[][] rotateClockwise(int[][] dimensions) {
+		int n = dimensions.length;
+		int[][] rotated = new int[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				rotated[j][n - i - 1] = dimensions[i][j];
 			}
 		}
+		return rotated;
 	}
 	
 	// finds the row of the block closest to the bottom
 	public int getBottomRow() {
-		int bottom = 0;
-		for (int i = 0; i < dimensions.length; i++) {
-			for (int j = 0; j < dimensions[0].length; j++) {
-				if (dimensions[i][j] == blockType) {
-					bottom = i;
-				}
-			}
-		}
-		return row + bottom;
+		return row + shape.bottom;
 	}
 	
 	// finds the left-most column that the block occupies
 	public int getLeftColumn() {
-		int left = 0;
-		for (int j = dimensions[0].length-1; j >= 0; j--) {
-			for (int i = 0; i < dimensions.length; i++) {
-				if (dimensions[i][j] == blockType) {
-					left = j;
-				}
-			}
-		}
-		return col + left;
+		return col + shape.left;
 	}
 	
 	// finds the right-most column that the block occupies
 	public int getRightColumn() {
-		int right = 0;
-		for (int j = 0; j < dimensions[0].length; j++) {
-			for (int i = 0; i < dimensions.length; i++) {
-				if (dimensions[i][j] == blockType) {
-					right = j;
-				}
-			}
-		}
-		return col + right;
+		return col + shape.right;
 	}
 	
-	public boolean hitBlock(int[][] grid) {
+	// mask of the squares this block occupies in row r of its dimensions
+	public int getRowMask(int r) {
+		if (r < 0 || r >= shape.size)
+			return 0;
+		return shape.rowMasks[r];
+	}
+	
+	// mask of the squares in row r that are the bottom of their column
+	public int getBottomMask(int r) {
+		if (r < 0 || r >= shape.size)
+			return 0;
+		return shape.bottomMasks[r];
+	}
+	
+	public boolean hitBlock(TetrisBoard board) {
 		// check if the block is on the bottom of the grid
-		if (getBottomRow() > 20) {
+		int lastRow = board.getRows() - 1;
+		if (getBottomRow() > lastRow) {
 			return true;
 		}
-		// iterate by column first
-		for (int j = 0; j < dimensions[0].length; j++) {
-			// find the last index of this column that contains a square
-			int colBottom = -1;
-			for (int i = 0; i < dimensions.length; i++) {
-				if (dimensions[i][j] == blockType) {
-					colBottom = i;
-				}
-			}
-			if (colBottom == -1) continue;
-			// check if the square directly under this one is occupied
-			if (row + colBottom + 1 > 20 || row + colBottom + 1 < 0
-					|| grid[row + colBottom + 1][col + j] > 0) {
+		for (int i = shape.top; i <= shape.bottom; i++) {
+			int bottom = shape.bottomMasks[i];
+			if (bottom == 0) continue;
+			// check if the squares directly under the bottom of each column are occupied
+			int below = row + i + 1;
+			if (below > lastRow || below < 0 || board.collides(below, col, bottom)) {
 				return true;
 			}
 		}
 		return false;
 	}
 	
-	public boolean canRotate(int[][] grid) {
-		// create a temporary block that simulates the rotation on a temporary board
-		int[][] tempDim = new int[dimensions.length][dimensions[0].length];
-		for (int i = 0; i < dimensions.length; i++) {
-			for (int j = 0; j < dimensions[0].length; j++) {
-				tempDim[j][dimensions[0].length - i - 1] = dimensions[i][j];
-			}
-		}
-		Block tempBlock = new Block(blockType, row, col, tempDim);
-		if (tempBlock.getLeftColumn() < 0 || tempBlock.getRightColumn() > 9
-				|| tempBlock.getBottomRow() >= 19)
+	public boolean canRotate(TetrisBoard board) {
+		// look up the rotated block instead of simulating it on a temporary board
+		Shape rotated = getShape(shape.blockType, orientation + 1);
+		if (col + rotated.left < 0 || col + rotated.right >= board.getColumns()
+				|| row + rotated.bottom >= board.getRows() - 2)
 			return false;
 		
 		// check if the rotation is possible
-		for (int i = 0; i < dimensions.length; i++) {
-			for (int j = 0; j < dimensions[0].length; j++) {
-				// if this square was not previously occupied by this block
-				// and the grid already has this square occupied, return false
-				if (tempBlock.getSquareAt(i, j) == blockType && dimensions[i][j] != blockType 
-						&& grid[i+row][j+col] > 0) {
-					return false;
-				}
+		for (int i = rotated.top; i <= rotated.bottom; i++) {
+			// if a square was not previously occupied by this block
+			// and the board already has this square occupied, return false
+			int added = rotated.rowMasks[i] & ~getRowMask(i);
+			if (added != 0 && board.collides(i + row, col, added)) {
+				return false;
 			}
 		}
 				
@@ -205,22 +219,8 @@ public class Block {
 	}
 	
 	public void rotate() {
-		int[][] tempDim = new int[dimensions.length][dimensions[0].length];
-		for (int i = 0; i < dimensions.length; i++) {
-			for (int j = 0; j < dimensions[0].length; j++) {
-				tempDim[j][dimensions[0].length - i - 1] = dimensions[i][j];
-			}
-		}
-		Block tempBlock = new Block(blockType, row, col, tempDim);
-		
-		// update the block info
-		orientation = (orientation + 1) % 4;
-		col = tempBlock.getCol();
-		for (int i = 0; i < dimensions.length; i++) {
-			for (int j = 0; j < dimensions[0].length; j++) {
-				dimensions[i][j] = tempBlock.getSquareAt(i, j);
-			}
-		}
+		// rotating in place only changes which orientation of the table is used
+		setOrientation(orientation + 1);
 	}
 	
 	
@@ -230,6 +230,9 @@ public class Block {
 
 	public void setBlockType(int blockType) {
 		this.blockType = blockType;
+		if (blockType != SHADOW_BLOCK) {
+			shape = getShape(blockType, orientation);
+		}
 	}
 	
 	public int getRow() {
@@ -248,12 +251,13 @@ public class Block {
 		this.col = col;
 	}
 
+	// the table's dimensions are shared between blocks and should never be modified
 	public int[][] getDimensions() {
-		return dimensions;
+		return blockType == SHADOW_BLOCK ? shape.shadowDimensions : shape.dimensions;
 	}
-
-	public void setDimensions(int[][] dimensions) {
-		this.dimensions = dimensions;
+	
+	public Shape getShape() {
+		return shape;
 	}
 
 	public int getOrientation() {
@@ -261,7 +265,8 @@ public class Block {
 	}
 
 	public void setOrientation(int orientation) {
-		this.orientation = orientation;
+		this.orientation = orientation & 3;
+		shape = getShape(shape.blockType, this.orientation);
 	}
 
 	public boolean isActive() {
@@ -273,20 +278,90 @@ public class Block {
 	}
 	
 	public int getSquareAt(int r, int c) {
-		if (r < 0 || c < 0 || r >= dimensions.length || c >= dimensions[0].length)
+		if (c < 0 || c >= shape.size || (getRowMask(r) & (1 << c)) == 0)
 			return 0;
-		return dimensions[r][c];
+		return blockType;
 	}
 	
 	// for debugging purposes
 	public void printBlock() {
 		System.out.println("type: " + blockType);
 		System.out.println("location: " + row + " " + col);
-		for (int i = 0; i < dimensions.length; i++) {
-			for (int j = 0; j < dimensions[0].length; j++) {
-				System.out.print(dimensions[i][j]);
+		for (int i = 0; i < shape.size; i++) {
+			for (int j = 0; j < shape.size; j++) {
+				System.out.print(getSquareAt(i, j));
 			}
 			System.out.println();
 		}
 	}
+	
+	// one orientation of a block type, with everything the collision checks need precomputed
+	static final class Shape {
+		
+		final int blockType;
+		final int size;
+		
+		final int[][] dimensions;
+		final int[][] shadowDimensions;
+		
+		// occupied squares of every row, and the squares with nothing of the block below them
+		final int[] rowMasks;
+		final int[] bottomMasks;
+		
+		// row and column offsets of each square
+		final int[] cellRows;
+		final int[] cellCols;
+		
+		// extents of the occupied squares
+		final int top, bottom, left, right;
+		
+		// lowest occupied row of every column, -1 if the column is empty
+		final int[] columnBottoms;
+		
+		private Shape(int blockType, int[][] dimensions) {
+			this.blockType = blockType;
+			this.dimensions = dimensions;
+			size = dimensions.length;
+			shadowDimensions = new int[size][size];
+			rowMasks = new int[size];
+			bottomMasks = new int[size];
+			columnBottoms = new int[size];
+			Arrays.fill(columnBottoms, -1);
+			
+			int count = 0;
+			int t = size, b = 0, l = size, r = 0;
+			for (int i = 0; i < size; i++) {
+				for (int j = 0; j < size; j++) {
+					if (dimensions[i][j] == 0) continue;
+					shadowDimensions[i][j] = SHADOW_BLOCK;
+					rowMasks[i] |= 1 << j;
+					columnBottoms[j] = i;
+					t = Math.min(t, i);
+					b = Math.max(b, i);
+					l = Math.min(l, j);
+					r = Math.max(r, j);
+					count++;
+				}
+			}
+			// an empty shape has all of its extents at zero
+			top = count == 0 ? 0 : t;
+			bottom = b;
+			left = count == 0 ? 0 : l;
+			right = r;
+			
+			cellRows = new int[count];
+			cellCols = new int[count];
+			int k = 0;
+			for (int i = 0; i < size; i++) {
+				int below = i + 1 < size ? rowMasks[i + 1] : 0;
+				bottomMasks[i] = rowMasks[i] & ~below;
+				for (int j = 0; j < size; j++) {
+					if (dimensions[i][j] == 0) continue;
+					cellRows[k] = i;
+					cellCols[k] = j;
+					k++;
+				}
+			}
+		}
+	}
 }
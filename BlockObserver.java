@@ -1,6 +1,7 @@
 
 public interface BlockObserver {
 
-	void blocksChanged();
+	// called once after every tick or input, with everything it changed
+	void blocksChanged(FrameDelta delta);
 	
 }
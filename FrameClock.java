@@ -0,0 +1,72 @@
+
+// counts the 60 Hz frames of a game as they come due in real time, measured with System.nanoTime
+// frame n is due at start + n / 60 of a second, worked out from the start every time, so a late frame
+// does not push back the ones after it and the rounding of a frame to whole nanoseconds never adds up
+// after a stall of more than MAX_BEHIND frames, the frames missed beyond those are skipped
+// rather than played all at once
+public class FrameClock {
+
+	private static final long SECOND = 1000000000L;
+	private static final int MAX_BEHIND = 10;
+
+	private long start;
+	private long frames;
+
+	// the frames that ran later than a millisecond, and by how much at most
+	private long lateFrames;
+	private long maxLatenessNanos;
+	private long skippedFrames;
+
+	// the first frame is due one frame from now
+	public void start(long now) {
+		start = now;
+		frames = 0;
+	}
+
+	// the number of frames that have come due by now and not been counted yet, counting them
+	public int due(long now) {
+		long behind = (now - start) * GravityCurve.FRAMES_PER_SECOND / SECOND - frames;
+		if (behind <= 0)
+			return 0;
+		long lateness = now - dueAt(frames + 1);
+		if (lateness > 1000000L) {
+			lateFrames++;
+		}
+		maxLatenessNanos = Math.max(maxLatenessNanos, lateness);
+		if (behind > MAX_BEHIND) {
+			// the clock goes on from here, as if the skipped frames had never been due
+			skippedFrames += behind - MAX_BEHIND;
+			frames += MAX_BEHIND;
+			start = now - frames * SECOND / GravityCurve.FRAMES_PER_SECOND;
+			return MAX_BEHIND;
+		}
+		frames += behind;
+		return (int) behind;
+	}
+
+	// when the next frame is due
+	public long nextDue() {
+		return dueAt(frames + 1);
+	}
+
+	private long dueAt(long frame) {
+		return start + frame * SECOND / GravityCurve.FRAMES_PER_SECOND;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public long getLateFrames() {
+		return lateFrames;
+	}
+
+	public long getMaxLatenessNanos() {
+		return maxLatenessNanos;
+	}
+
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+
+}
@@ -0,0 +1,234 @@
+import java.util.Arrays;
+
+// everything one tick or one input changed in a model
+// the model reuses a single delta, so observers read it during the callback and do not keep it
+public class FrameDelta {
+
+	// counts the deltas the model has published
+	private long frame;
+
+	// the input that made this delta, null for a gravity tick or a new game
+	private TetrisInput input;
+
+	// the squares of every row that changed, one bit per column, sized for the board of the game
+	private long[] changedRows = new long[TetrisBoard.ROWS];
+	private long fullRow = (1L << TetrisBoard.COLUMNS) - 1;
+	private boolean nextChanged;
+	private boolean holdChanged;
+
+	// what happened to the blocks
+	private boolean moved;
+	private boolean rotated;
+	private boolean dropped;
+	private boolean hardDropped;
+	private boolean locked;
+	private boolean held;
+	private boolean spawned;
+
+	// what happened to the game and its stats
+	private boolean newGame;
+	private boolean restored;
+	private boolean gameOver;
+	private boolean levelUp;
+	private boolean statsChanged;
+	private int linesCleared;
+	private int scoreDelta;
+
+	// garbage rows of a versus game, sent to the opponent and risen from the bottom of this board
+	private int garbageSent;
+	private int garbageReceived;
+
+	// starts the next delta
+	void reset(TetrisInput input) {
+		frame++;
+		this.input = input;
+		Arrays.fill(changedRows, 0);
+		nextChanged = holdChanged = false;
+		moved = rotated = dropped = hardDropped = locked = held = spawned = false;
+		newGame = restored = gameOver = levelUp = statsChanged = false;
+		linesCleared = scoreDelta = 0;
+		garbageSent = garbageReceived = 0;
+	}
+
+	// follows the size of a new board, before the delta is reset for it
+	void setBoard(TetrisBoard board) {
+		if (changedRows.length != board.getRows()) {
+			changedRows = new long[board.getRows()];
+		}
+		fullRow = board.getFullRow();
+	}
+
+	void markCell(int row, int col) {
+		changedRows[row] |= 1L << col;
+	}
+
+	void markRows(int firstRow, int lastRow) {
+		for (int i = firstRow; i <= lastRow; i++) {
+			changedRows[i] = fullRow;
+		}
+	}
+
+	void markNext() {
+		nextChanged = true;
+	}
+
+	void markHold() {
+		holdChanged = true;
+	}
+
+	void setMoved() {
+		moved = true;
+	}
+
+	void setRotated() {
+		rotated = true;
+	}
+
+	void setDropped() {
+		dropped = true;
+	}
+
+	void setHardDropped() {
+		hardDropped = true;
+	}
+
+	void setLocked() {
+		locked = true;
+	}
+
+	void setHeld() {
+		held = true;
+	}
+
+	void setSpawned() {
+		spawned = true;
+	}
+
+	void setNewGame() {
+		newGame = true;
+		statsChanged = true;
+	}
+
+	// the game was put back to a saved snapshot, everything about it may have changed
+	void setRestored() {
+		restored = true;
+		statsChanged = true;
+	}
+
+	void setGameOver() {
+		gameOver = true;
+		statsChanged = true;
+	}
+
+	void setLevelUp() {
+		levelUp = true;
+	}
+
+	void addLines(int lines, int score) {
+		linesCleared += lines;
+		scoreDelta += score;
+		statsChanged = true;
+	}
+
+	void addGarbageSent(int lines) {
+		garbageSent += lines;
+	}
+
+	void addGarbageReceived(int lines) {
+		garbageReceived += lines;
+	}
+
+	public long getFrame() {
+		return frame;
+	}
+
+	public TetrisInput getInput() {
+		return input;
+	}
+
+	// the number of rows of the board the delta is about
+	public int getRows() {
+		return changedRows.length;
+	}
+
+	public long getChangedRowMask(int row) {
+		return changedRows[row];
+	}
+
+	public boolean isCellChanged(int row, int col) {
+		return (changedRows[row] & (1L << col)) != 0;
+	}
+
+	public boolean isNextChanged() {
+		return nextChanged;
+	}
+
+	public boolean isHoldChanged() {
+		return holdChanged;
+	}
+
+	public boolean isMoved() {
+		return moved;
+	}
+
+	public boolean isRotated() {
+		return rotated;
+	}
+
+	public boolean isDropped() {
+		return dropped;
+	}
+
+	public boolean isHardDropped() {
+		return hardDropped;
+	}
+
+	public boolean isLocked() {
+		return locked;
+	}
+
+	public boolean isHeld() {
+		return held;
+	}
+
+	public boolean isSpawned() {
+		return spawned;
+	}
+
+	public boolean isNewGame() {
+		return newGame;
+	}
+
+	public boolean isRestored() {
+		return restored;
+	}
+
+	public boolean isGameOver() {
+		return gameOver;
+	}
+
+	public boolean isLevelUp() {
+		return levelUp;
+	}
+
+	public boolean isStatsChanged() {
+		return statsChanged;
+	}
+
+	public int getLinesCleared() {
+		return linesCleared;
+	}
+
+	public int getScoreDelta() {
+		return scoreDelta;
+	}
+
+	public int getGarbageSent() {
+		return garbageSent;
+	}
+
+	public int getGarbageReceived() {
+		return garbageReceived;
+	}
+
+}
@@ -0,0 +1,91 @@
+
+// the result of one finished game, as the score store keeps it
+public final class GameRecord {
+
+	// the difficulties a game can be played at, as they are stored
+	public static final int EASY = 0;
+	public static final int MEDIUM = 1;
+	public static final int HARD = 2;
+	public static final int ADAPTIVE = 3;
+	public static final int AI = 4;
+	public static final int OTHER = 5;
+	static final int DIFFICULTIES = 8;
+
+	private final long endedAt;
+	private final long gameTimeMillis;
+	private final int score;
+	private final int lines;
+	private final int pieces;
+	private final int level;
+	private final int difficulty;
+
+	public GameRecord(long endedAt, long gameTimeMillis, int score, int lines, int pieces, int level, int difficulty) {
+		this.endedAt = endedAt;
+		this.gameTimeMillis = gameTimeMillis;
+		this.score = score;
+		this.lines = lines;
+		this.pieces = pieces;
+		this.level = level;
+		this.difficulty = difficulty;
+	}
+
+	// the record of a game that has just ended
+	public static GameRecord of(TetrisStats stats, int difficulty) {
+		return new GameRecord(System.currentTimeMillis(), stats.getGameTimeMillis(), stats.getScore(),
+				stats.getLinesCleared(), stats.getPiecesPlaced(), stats.getLevel(), difficulty);
+	}
+
+	// the difficulty of the menu button that starts games at a speed
+	public static int difficultyOf(int speed, boolean bot) {
+		if (bot)
+			return AI;
+		switch (speed) {
+			case 800:
+				return EASY;
+			case 300:
+				return MEDIUM;
+			case 100:
+				return HARD;
+			case 1000:
+				return ADAPTIVE;
+			default:
+				return OTHER;
+		}
+	}
+
+	// milliseconds since the epoch
+	public long getEndedAt() {
+		return endedAt;
+	}
+
+	public long getGameTimeMillis() {
+		return gameTimeMillis;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	public int getPieces() {
+		return pieces;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getDifficulty() {
+		return difficulty;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%tF %<tR  score %d  lines %d  level %d  pieces %d  %ds", endedAt, score, lines, level,
+				pieces, gameTimeMillis / 1000);
+	}
+
+}
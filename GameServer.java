@@ -0,0 +1,351 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// hosts many independent games in one JVM for local tournaments, every loopback connection plays one game
+//
+// a client sends one byte per input, the ordinal of a TetrisInput
+// the host sends
+//   'H' seed (long) speed (int)                when the game starts, enough to replay it from the inputs
+//   'S' score (int) lines (int) level (byte)   whenever the stats change
+//   'O'                                        when the game is over, then it closes the connection
+//
+// one selector thread reads every connection, and the games are spread over one scheduler thread per core
+// a game is only ever touched by its scheduler thread, which keeps its gravity clock in a queue ordered
+// by the time of the next tick, so thousands of games need no timer or thread of their own
+//
+// java GameServer [port] [speed] [reportSeconds]
+public class GameServer implements Runnable {
+
+	private static final int INPUTS = TetrisInput.values().length;
+
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final Shard[] shards;
+	private final int speed;
+	private final AtomicLong nextId = new AtomicLong();
+
+	// every game that is being played, for the reports
+	private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<Long, Session>();
+	private final AtomicLong gamesFinished = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	// the counts at the last report, so each report covers only the time since the one before
+	private long[] reportedHistogram = new long[Histogram.BUCKETS];
+	private long reportedTicks;
+	private long reportedAt = System.nanoTime();
+
+	public GameServer(int port, int speed, int shardCount) throws IOException {
+		this.speed = speed;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		shards = new Shard[shardCount];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard();
+			Thread t = new Thread(shards[i], "game-shard-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+		int speed = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		int reportSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		GameServer host = new GameServer(port, speed, Runtime.getRuntime().availableProcessors());
+		Thread selectorThread = new Thread(host, "game-selector");
+		selectorThread.start();
+		System.out.println("hosting games on " + host.getPort() + ", gravity every " + speed + "ms");
+		while (host.running) {
+			Thread.sleep(reportSeconds * 1000L);
+			System.out.println(host.report());
+		}
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	// accepts connections and reads the inputs of every game
+	@Override
+	public void run() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+		byte[] inputs = new byte[4096];
+		try {
+			while (running) {
+				selector.select();
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable()) {
+						read(key, buffer, inputs);
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+			selector.close();
+			server.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (Shard shard : shards) {
+			shard.running = false;
+			LockSupport.unpark(shard.thread);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			long id = nextId.getAndIncrement();
+			Shard shard = shards[(int) (id % shards.length)];
+			Session session = new Session(id, channel, shard);
+			channel.register(selector, SelectionKey.OP_READ, session);
+			sessions.put(id, session);
+			shard.execute(() -> shard.start(session));
+		}
+	}
+
+	private void read(SelectionKey key, ByteBuffer buffer, byte[] inputs) {
+		Session session = (Session) key.attachment();
+		int n;
+		try {
+			buffer.clear();
+			n = session.channel.read(buffer);
+		} catch (IOException e) {
+			n = -1;
+		}
+		if (n < 0) {
+			key.cancel();
+			session.shard.execute(() -> session.shard.finish(session));
+			return;
+		}
+		buffer.flip();
+		int count = 0;
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (b >= 0 && b < INPUTS) {
+				inputs[count++] = b;
+			}
+		}
+		if (count > 0) {
+			byte[] batch = Arrays.copyOf(inputs, count);
+			session.shard.execute(() -> session.input(batch));
+		}
+	}
+
+	// what the host is doing, and how late the gravity ticks of its games were since the last report
+	public synchronized String report() {
+		long[] histogram = new long[Histogram.BUCKETS];
+		long ticks = 0;
+		for (Shard shard : shards) {
+			ticks += shard.ticks;
+			for (int i = 0; i < histogram.length; i++) {
+				histogram[i] += shard.jitter.count(i);
+			}
+		}
+		long now = System.nanoTime();
+		long[] interval = new long[histogram.length];
+		for (int i = 0; i < histogram.length; i++) {
+			interval[i] = histogram[i] - reportedHistogram[i];
+		}
+		double ticksPerSecond = (ticks - reportedTicks) * 1e9 / (now - reportedAt);
+		reportedHistogram = histogram;
+		reportedTicks = ticks;
+		reportedAt = now;
+		// the games whose ticks were the latest since they started
+		Session[] worst = sessions.values().stream()
+				.sorted((a, b) -> Long.compare(b.maxJitter, a.maxJitter))
+				.limit(3).toArray(Session[]::new);
+		StringBuilder sb = new StringBuilder();
+		Runtime rt = Runtime.getRuntime();
+		sb.append(String.format("games %d  finished %d  ticks/s %.0f  heap %dMB%n", sessions.size(),
+				gamesFinished.get(), ticksPerSecond, (rt.totalMemory() - rt.freeMemory()) >> 20));
+		sb.append(String.format("tick jitter  p50 %s  p99 %s  p99.9 %s  max %s",
+				Histogram.format(Histogram.percentile(interval, 0.5)),
+				Histogram.format(Histogram.percentile(interval, 0.99)),
+				Histogram.format(Histogram.percentile(interval, 0.999)),
+				Histogram.format(Histogram.percentile(interval, 1.0))));
+		for (Session s : worst) {
+			sb.append(String.format("%n  game %d  ticks %d  mean %.0fus  max %.0fus", s.id, s.ticks,
+					s.ticks == 0 ? 0.0 : s.totalJitter / 1e3 / s.ticks, s.maxJitter / 1e3));
+		}
+		return sb.toString();
+	}
+
+	// runs the games given to it, each tick on time and every input in the order it arrived
+	private final class Shard implements Runnable {
+
+		private final ConcurrentLinkedQueue<Runnable> inbox = new ConcurrentLinkedQueue<Runnable>();
+		private final PriorityQueue<Session> clock =
+				new PriorityQueue<Session>((a, b) -> Long.compare(a.nextTick, b.nextTick));
+		private final Histogram jitter = new Histogram();
+		private volatile Thread thread;
+		private volatile boolean running = true;
+		private volatile long ticks;
+
+		void execute(Runnable task) {
+			inbox.offer(task);
+			LockSupport.unpark(thread);
+		}
+
+		void start(Session session) {
+			session.start(speed);
+			session.nextTick = System.nanoTime() + session.model.getGravityDelay() * 1000000L;
+			clock.add(session);
+		}
+
+		void finish(Session session) {
+			if (session.finished)
+				return;
+			session.finished = true;
+			clock.remove(session);
+			sessions.remove(session.id);
+			gamesFinished.incrementAndGet();
+			try {
+				session.channel.close();
+			} catch (IOException e) {
+				// it is closed either way
+			}
+		}
+
+		@Override
+		public void run() {
+			thread = Thread.currentThread();
+			while (running) {
+				Runnable task;
+				while ((task = inbox.poll()) != null) {
+					task.run();
+				}
+				long now = System.nanoTime();
+				Session next;
+				while ((next = clock.peek()) != null && now - next.nextTick >= 0) {
+					clock.poll();
+					// the batch is bounded by the time it started, but every tick is timed as it runs,
+					// so the ticks that waited behind a long batch are counted as late as they were
+					long late = System.nanoTime() - next.nextTick;
+					jitter.record(late);
+					next.recordJitter(late);
+					ticks++;
+					next.model.tick();
+					if (next.finished)
+						continue;
+					// the next tick is due a gravity delay after this one was due, not after it ran
+					next.nextTick += next.model.getGravityDelay() * 1000000L;
+					clock.add(next);
+				}
+				if (inbox.isEmpty()) {
+					next = clock.peek();
+					LockSupport.parkNanos(this, next == null ? 100000000L : next.nextTick - System.nanoTime());
+				}
+			}
+		}
+
+	}
+
+	// one game and the connection that plays it, only touched by the thread of its shard
+	private final class Session implements StatsObserver {
+
+		final long id;
+		final SocketChannel channel;
+		final Shard shard;
+		final TetrisModel model = new TetrisModel();
+
+		// what is waiting to be written when the client reads more slowly than the game runs
+		private final ByteBuffer out = ByteBuffer.allocate(256);
+
+		long nextTick;
+		boolean finished;
+
+		// read by the reports from other threads, so only roughly up to date there
+		volatile long ticks;
+		volatile long totalJitter;
+		volatile long maxJitter;
+
+		Session(long id, SocketChannel channel, Shard shard) {
+			this.id = id;
+			this.channel = channel;
+			this.shard = shard;
+			model.registerStatsObserver(this);
+		}
+
+		void start(int speed) {
+			BagRandomizer randomizer = new BagRandomizer(1, System.nanoTime() ^ id);
+			out.put((byte) 'H').putLong(randomizer.getSeed()).putInt(speed);
+			model.setUpGame(speed, randomizer);
+		}
+
+		void input(byte[] inputs) {
+			for (byte b : inputs) {
+				if (finished)
+					return;
+				model.step(TetrisInput.values()[b]);
+			}
+		}
+
+		void recordJitter(long late) {
+			ticks++;
+			totalJitter += late;
+			if (late > maxJitter) {
+				maxJitter = late;
+			}
+		}
+
+		@Override
+		public void statsChanged(FrameDelta delta) {
+			TetrisStats stats = model.getGameStats();
+			if (out.remaining() < 10) {
+				// a client this far behind is dropped rather than buffered without limit
+				shard.finish(this);
+				return;
+			}
+			out.put((byte) 'S').putInt(stats.getScore()).putInt(stats.getLinesCleared()).put((byte) stats.getLevel());
+			if (delta.isGameOver()) {
+				out.put((byte) 'O');
+			}
+			flush();
+			if (delta.isGameOver()) {
+				shard.finish(this);
+			}
+		}
+
+		private void flush() {
+			out.flip();
+			try {
+				channel.write(out);
+			} catch (IOException e) {
+				out.clear();
+				shard.finish(this);
+				return;
+			}
+			out.compact();
+		}
+
+	}
+
+}
@@ -0,0 +1,72 @@
+
+// an immutable copy of everything the view shows of a model at the end of one step
+// made on the simulation thread and read by the event thread without any locking
+public final class GameSnapshot implements GameState {
+
+	private final long frame;
+	private final int rows, columns;
+	private final byte[] squares;
+	private final int[] nextTypes;
+	private final int heldType;
+
+	private final boolean gameInProgress;
+	private final TetrisStats stats;
+
+	public GameSnapshot(TetrisModel model, long frame) {
+		this.frame = frame;
+		rows = model.getRows();
+		columns = model.getColumns();
+		squares = new byte[rows * columns];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++) {
+				squares[i * columns + j] = (byte) model.blockAt(i, j);
+			}
+		}
+		nextTypes = new int[model.getNextCount()];
+		for (int i = 0; i < nextTypes.length; i++) {
+			nextTypes[i] = model.getNextType(i);
+		}
+		heldType = model.getHeldType();
+		gameInProgress = model.isGameInProgress();
+		TetrisStats s = model.getGameStats();
+		stats = new TetrisStats(s.getScore(), s.getLinesCleared(), s.getLevel(), s.getMessage());
+	}
+
+	public int blockAt(int row, int col) {
+		return squares[row * columns + col];
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getNextCount() {
+		return nextTypes.length;
+	}
+
+	public int getNextType(int index) {
+		return nextTypes[index];
+	}
+
+	public int getHeldType() {
+		return heldType;
+	}
+
+	public long getFrame() {
+		return frame;
+	}
+
+	public boolean isGameInProgress() {
+		return gameInProgress;
+	}
+
+	// a copy, changing it does not change the snapshot
+	public TetrisStats getStats() {
+		return new TetrisStats(stats.getScore(), stats.getLinesCleared(), stats.getLevel(), stats.getMessage());
+	}
+
+}
@@ -0,0 +1,20 @@
+
+// what the renderer reads to draw a game, either from the live model or from a snapshot of it
+public interface GameState {
+
+	// the block type shown in a square, SHADOW_BLOCK for the shadow and 0 when it is empty
+	int blockAt(int row, int col);
+
+	// the size of the board, the hidden top row included
+	int getRows();
+
+	int getColumns();
+
+	int getNextCount();
+
+	int getNextType(int index);
+
+	// 0 when no block is held
+	int getHeldType();
+
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+// how fast blocks fall at every level, in rows per frame of a 60 Hz clock, and how long a block that
+// has landed waits before it locks
+// gravity is kept in 1/65536 rows per frame, so a game falls the same way on every machine and replays
+// exactly, and a level can fall far less than a row per frame or many rows every frame
+//
+// tetris.gravityCurve gives the levels as a comma separated list, each a number of rows per frame,
+// a fraction such as 1/60, or 20G for blocks that land the moment they appear
+// tetris.lockDelay gives the frames a block waits on the ground, 30 (half a second) by default
+public final class GravityCurve {
+
+	public static final int FRAMES_PER_SECOND = 60;
+	public static final int ONE_ROW = 1 << 16;
+
+	// 20 rows a frame, more than any board falls in one, so the block lands at once
+	public static final int INSTANT = 20 * ONE_ROW;
+
+	// the adaptive mode of old for its first five levels, then on to instant gravity
+	private static final String DEFAULT = "1/60,1/30,1/18,1/12,1/6,1/2,1,2,5,20G";
+
+	private final int[] gravity;
+	private final int lockDelay;
+
+	public GravityCurve(int[] gravity, int lockDelay) {
+		if (gravity.length == 0 || gravity.length > 255)
+			throw new IllegalArgumentException("a gravity curve has 1 to 255 levels: " + gravity.length);
+		if (lockDelay < 1 || lockDelay > Short.MAX_VALUE)
+			throw new IllegalArgumentException("lock delay out of range: " + lockDelay);
+		for (int g : gravity) {
+			if (g <= 0 || g > INSTANT)
+				throw new IllegalArgumentException("gravity out of range: " + g);
+		}
+		this.gravity = gravity.clone();
+		this.lockDelay = lockDelay;
+	}
+
+	// the curve set by tetris.gravityCurve and tetris.lockDelay, or the default one
+	public static GravityCurve fromProperties() {
+		return parse(System.getProperty("tetris.gravityCurve", DEFAULT), Integer.getInteger("tetris.lockDelay", 30));
+	}
+
+	public static GravityCurve parse(String levels, int lockDelay) {
+		String[] parts = levels.split(",");
+		int[] gravity = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			gravity[i] = parseLevel(parts[i].trim());
+		}
+		return new GravityCurve(gravity, lockDelay);
+	}
+
+	private static int parseLevel(String level) {
+		if (level.equalsIgnoreCase("20G"))
+			return INSTANT;
+		String number = level.endsWith("G") || level.endsWith("g") ? level.substring(0, level.length() - 1) : level;
+		int slash = number.indexOf('/');
+		double rows = slash < 0 ? Double.parseDouble(number)
+				: Double.parseDouble(number.substring(0, slash)) / Double.parseDouble(number.substring(slash + 1));
+		return (int) Math.min(INSTANT, Math.max(1, Math.round(rows * ONE_ROW)));
+	}
+
+	// the gravity of a game that falls one row every so many milliseconds, as the menu speeds are given
+	public static int fromDelay(int millis) {
+		return (int) Math.min(INSTANT, Math.max(1, Math.round(1000.0 * ONE_ROW / (FRAMES_PER_SECOND * millis))));
+	}
+
+	// the milliseconds between rows at a gravity, at least one
+	public static int toDelay(int gravity) {
+		return (int) Math.max(1, Math.round(1000.0 * ONE_ROW / ((double) FRAMES_PER_SECOND * gravity)));
+	}
+
+	// the gravity of a level counted from 1, the last level goes on for ever
+	public int getGravity(int level) {
+		return gravity[Math.max(0, Math.min(level, gravity.length) - 1)];
+	}
+
+	public int getLevels() {
+		return gravity.length;
+	}
+
+	public int getLockDelay() {
+		return lockDelay;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(gravity) + " lock " + lockDelay;
+	}
+
+}
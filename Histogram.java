@@ -0,0 +1,68 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// counts durations in a fixed set of buckets, so recording never allocates and memory never grows
+// each bucket is striped, so threads that record at once do not fight over the same counter
+// bucket 0 holds durations of no time at all, bucket i the durations from 2^(i-1) up to 2^i nanoseconds,
+// fine enough for the steps of the model that take a few hundred nanoseconds and up to about a day
+public class Histogram {
+
+	static final int BUCKETS = 48;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+	public Histogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		counts[bucket(nanos)].increment();
+	}
+
+	static int bucket(long nanos) {
+		return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	// the largest duration a bucket holds, in nanoseconds
+	static long upperBound(int bucket) {
+		return 1L << bucket;
+	}
+
+	public long count(int bucket) {
+		return counts[bucket].sum();
+	}
+
+	public long[] snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts[i].sum();
+		}
+		return copy;
+	}
+
+	// the upper bound of the bucket that holds the given fraction of the counts, 0 if there are none
+	static long percentile(long[] counts, double fraction) {
+		long total = 0;
+		for (long c : counts) {
+			total += c;
+		}
+		if (total == 0)
+			return 0;
+		long target = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target && counts[i] > 0)
+				return upperBound(i);
+		}
+		return upperBound(counts.length - 1);
+	}
+
+	static String format(long nanos) {
+		if (nanos < 1000)
+			return "<" + nanos + "ns";
+		return nanos < 1000000 ? String.format("<%.1fus", nanos / 1e3) : String.format("<%.1fms", nanos / 1e6);
+	}
+
+}
@@ -0,0 +1,79 @@
+import java.beans.ConstructorProperties;
+
+// the percentiles of a Histogram over one sampling interval, as a JMX composite
+// each percentile is the upper bound of the bucket it falls in, in nanoseconds
+public class HistogramSummary {
+
+	private final long count;
+	private final long total;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long p999Nanos;
+	private final long maxNanos;
+	private final long[] buckets;
+
+	@ConstructorProperties({"count", "total", "p50Nanos", "p99Nanos", "p999Nanos", "maxNanos", "buckets"})
+	public HistogramSummary(long count, long total, long p50Nanos, long p99Nanos, long p999Nanos,
+			long maxNanos, long[] buckets) {
+		this.count = count;
+		this.total = total;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.p999Nanos = p999Nanos;
+		this.maxNanos = maxNanos;
+		this.buckets = buckets;
+	}
+
+	// the counts of one interval of a histogram, and how many it has counted in all
+	static HistogramSummary of(long[] interval, long total) {
+		long count = 0;
+		for (long c : interval) {
+			count += c;
+		}
+		return new HistogramSummary(count, total,
+				Histogram.percentile(interval, 0.5),
+				Histogram.percentile(interval, 0.99),
+				Histogram.percentile(interval, 0.999),
+				Histogram.percentile(interval, 1.0),
+				interval);
+	}
+
+	// recorded in the interval
+	public long getCount() {
+		return count;
+	}
+
+	// recorded since the start
+	public long getTotal() {
+		return total;
+	}
+
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	public long getP999Nanos() {
+		return p999Nanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	// the counts of the interval, bucket i holds durations up to 2^i nanoseconds
+	public long[] getBuckets() {
+		return buckets.clone();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d  p50 %s  p99 %s  p99.9 %s  max %s", count,
+				Histogram.format(p50Nanos), Histogram.format(p99Nanos), Histogram.format(p999Nanos),
+				Histogram.format(maxNanos));
+	}
+
+}
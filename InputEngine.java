@@ -0,0 +1,265 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// turns key presses and releases into model inputs with delayed auto shift (DAS), an auto repeat rate (ARR)
+// and a soft drop factor, timed with System.nanoTime instead of the key repeat of the operating system
+// presses and releases come from the event thread through a lock-free queue, update() runs on the thread
+// that owns the model and makes every move that has come due since the key went down
+public class InputEngine {
+
+	// a release followed this quickly by a press of the same key is the key repeat of the operating system
+	private static final long REPEAT_GAP = 2000000L;
+
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final TetrisModel model;
+	private final long das;
+	private final long arr;
+	private final int softDropFactor;
+
+	private final InputQueue queue = new InputQueue(256);
+
+	// the state of every key, indexed by the input it makes
+	// when it went down, and when it was let go if that is not yet known to be a key repeat
+	private final long[] downSince = new long[TetrisInput.values().length];
+	private final long[] releasedAt = new long[TetrisInput.values().length];
+
+	// the direction being shifted, when it started and how many repeats it has made
+	private TetrisInput shift;
+	private long shiftStart;
+	private long shiftMoves;
+
+	// when the next soft drop is due while the down key is held
+	// each drop is due an interval after the one before, at the gravity in effect when that one was made,
+	// so a change of speed only changes the drops after it
+	private long nextSoftDrop;
+
+	public InputEngine(TetrisModel model, int dasMillis, int arrMillis, int softDropFactor) {
+		this.model = model;
+		this.das = dasMillis * 1000000L;
+		this.arr = arrMillis * 1000000L;
+		this.softDropFactor = Math.max(1, softDropFactor);
+		reset();
+	}
+
+	// called on the event thread
+	public void press(TetrisInput input, long when) {
+		queue.offer(when, input.ordinal() << 1 | 1);
+	}
+
+	// called on the event thread
+	public void release(TetrisInput input, long when) {
+		queue.offer(when, input.ordinal() << 1);
+	}
+
+	// forgets every key, on the thread that owns the model while no keys are being handled
+	public void reset() {
+		while (queue.poll() >= 0);
+		Arrays.fill(downSince, NONE);
+		Arrays.fill(releasedAt, NONE);
+		shift = null;
+	}
+
+	// makes every input that is due by now, called on the thread that owns the model
+	public void update(long now) {
+		// the events are handled in the order they happened, with the repeats due before each of them
+		int event;
+		while ((event = queue.peek()) >= 0) {
+			long when = queue.peekTime();
+			queue.poll();
+			TetrisInput input = TetrisInput.values()[event >> 1];
+			advance(when);
+			if ((event & 1) != 0) {
+				keyDown(input, when);
+			} else if (downSince[input.ordinal()] != NONE) {
+				// the release only counts once no press follows it straight away
+				releasedAt[input.ordinal()] = when;
+			}
+		}
+		for (TetrisInput input : TetrisInput.values()) {
+			long released = releasedAt[input.ordinal()];
+			if (released != NONE && now - released >= REPEAT_GAP) {
+				advance(released);
+				keyUp(input, released);
+			}
+		}
+		advance(now);
+	}
+
+	private void keyDown(TetrisInput input, long when) {
+		int i = input.ordinal();
+		if (downSince[i] != NONE) {
+			// a press while the key is down, or a press right after its release, is the key repeating
+			if (releasedAt[i] == NONE || when - releasedAt[i] < REPEAT_GAP) {
+				releasedAt[i] = NONE;
+				return;
+			}
+			keyUp(input, releasedAt[i]);
+		}
+		downSince[i] = when;
+		switch (input) {
+			case MOVE_LEFT:
+			case MOVE_RIGHT:
+				startShift(input, when);
+				break;
+			case SOFT_DROP:
+				model.step(input);
+				nextSoftDrop = when + softDropInterval();
+				break;
+			default:
+				// rotations, hard drops and holds never repeat
+				model.step(input);
+				break;
+		}
+		if (TetrisMetrics.ENABLED) {
+			TetrisMetrics.recordInput(System.nanoTime() - when);
+		}
+	}
+
+	private void keyUp(TetrisInput input, long when) {
+		int i = input.ordinal();
+		downSince[i] = NONE;
+		releasedAt[i] = NONE;
+		if (input == shift) {
+			// the other direction takes over if it is still held
+			TetrisInput other = input == TetrisInput.MOVE_LEFT ? TetrisInput.MOVE_RIGHT : TetrisInput.MOVE_LEFT;
+			shift = null;
+			if (downSince[other.ordinal()] != NONE) {
+				startShift(other, when);
+			}
+		}
+	}
+
+	// the first move happens on the press, the repeats start once DAS has passed
+	private void startShift(TetrisInput input, long when) {
+		shift = input;
+		shiftStart = when;
+		shiftMoves = 0;
+		model.step(input);
+	}
+
+	// makes the repeats of the held keys that came due by the given time
+	// a key that has been let go only repeats until its release
+	private void advance(long until) {
+		if (shift != null) {
+			long held = heldUntil(shift, until) - shiftStart - das;
+			if (held >= 0) {
+				if (arr == 0) {
+					// an ARR of zero moves the block as far as it goes, and keeps new blocks against the wall
+					shiftToWall(shift);
+					shiftMoves = 1;
+				} else {
+					long due = held / arr + 1;
+					for (; shiftMoves < due; shiftMoves++) {
+						model.step(shift);
+					}
+				}
+			}
+		}
+		long down = downSince[TetrisInput.SOFT_DROP.ordinal()];
+		if (down != NONE) {
+			// soft drop makes gravity the given number of times faster
+			long held = heldUntil(TetrisInput.SOFT_DROP, until);
+			while (held - nextSoftDrop >= 0) {
+				model.step(TetrisInput.SOFT_DROP);
+				nextSoftDrop += softDropInterval();
+			}
+		}
+	}
+
+	private long heldUntil(TetrisInput input, long until) {
+		long released = releasedAt[input.ordinal()];
+		return released != NONE && released < until ? released : until;
+	}
+
+	private long softDropInterval() {
+		return Math.max(1000000L, model.getGravityDelay() * 1000000L / softDropFactor);
+	}
+
+	// moves through the same collision check as a single move, without asking the model for moves that cannot happen
+	private void shiftToWall(TetrisInput direction) {
+		int dc = direction == TetrisInput.MOVE_LEFT ? -1 : 1;
+		Block b = model.getCurrentBlock();
+		while (model.isGameInProgress()
+				&& model.validPosition(new Block(b.getBlockType(), b.getRow(), b.getCol() + dc, b.getOrientation()))) {
+			model.step(direction);
+			b = model.getCurrentBlock();
+		}
+	}
+
+	// the time of the next repeat or key release to handle, Long.MAX_VALUE when there is none
+	public long nextDue() {
+		long next = Long.MAX_VALUE;
+		if (shift != null && !(arr == 0 && shiftMoves > 0)) {
+			next = Math.min(next, shiftStart + das + shiftMoves * arr);
+		}
+		long down = downSince[TetrisInput.SOFT_DROP.ordinal()];
+		if (down != NONE) {
+			next = Math.min(next, nextSoftDrop);
+		}
+		for (long released : releasedAt) {
+			if (released != NONE) {
+				next = Math.min(next, released + REPEAT_GAP);
+			}
+		}
+		return next;
+	}
+
+	public boolean isKeyDown() {
+		for (long since : downSince) {
+			if (since != NONE)
+				return true;
+		}
+		return false;
+	}
+
+	// a single producer, single consumer ring of timestamped key events
+	private static final class InputQueue {
+
+		private final long[] times;
+		private final byte[] events;
+		private final int mask;
+
+		// the consumer owns head and the producer owns tail, each only reads the other's
+		private final AtomicLong head = new AtomicLong();
+		private final AtomicLong tail = new AtomicLong();
+
+		InputQueue(int capacity) {
+			times = new long[capacity];
+			events = new byte[capacity];
+			mask = capacity - 1;
+		}
+
+		// drops the event if the consumer has fallen a whole ring behind
+		boolean offer(long time, int event) {
+			long t = tail.get();
+			if (t - head.get() == times.length)
+				return false;
+			int i = (int) t & mask;
+			times[i] = time;
+			events[i] = (byte) event;
+			tail.lazySet(t + 1);
+			return true;
+		}
+
+		// the next event, or -1 when the queue is empty
+		int peek() {
+			long h = head.get();
+			return h == tail.get() ? -1 : events[(int) h & mask];
+		}
+
+		long peekTime() {
+			return times[(int) head.get() & mask];
+		}
+
+		int poll() {
+			int event = peek();
+			if (event >= 0) {
+				head.lazySet(head.get() + 1);
+			}
+			return event;
+		}
+
+	}
+
+}
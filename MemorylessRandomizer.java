@@ -0,0 +1,38 @@
+import java.util.SplittableRandom;
+
+// deals every block with the same chance, no matter what came before
+public class MemorylessRandomizer implements PieceRandomizer {
+
+	static final String CLASSIC = "classic";
+
+	private final long seed;
+	private final SplittableRandom random;
+	private long dealt;
+
+	public MemorylessRandomizer(long seed) {
+		this.seed = seed;
+		random = new SplittableRandom(seed);
+	}
+
+	@Override
+	public int next() {
+		dealt++;
+		return random.nextInt(7) + 1;
+	}
+
+	@Override
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public long getDealt() {
+		return dealt;
+	}
+
+	@Override
+	public String getName() {
+		return CLASSIC;
+	}
+
+}
@@ -0,0 +1,45 @@
+
+// chooses the order blocks are dealt in
+// every randomizer is created from an explicit seed, so the same seed always deals the same blocks
+public interface PieceRandomizer {
+
+	// the type of the next block, from Block.I_BLOCK to Block.Z_BLOCK
+	int next();
+
+	long getSeed();
+
+	String getName();
+
+	// the number of blocks dealt since the randomizer was created
+	long getDealt();
+
+	// deals blocks without looking at them, a randomizer that can skip them faster overrides it
+	default void skip(long count) {
+		for (long i = 0; i < count; i++) {
+			next();
+		}
+	}
+
+	// creates a randomizer by name, used to restore the randomizer of a recorded game
+	static PieceRandomizer create(String name, long seed) {
+		switch (name) {
+			case BagRandomizer.SEVEN_BAG:
+				return new BagRandomizer(1, seed);
+			case BagRandomizer.FOURTEEN_BAG:
+				return new BagRandomizer(2, seed);
+			case MemorylessRandomizer.CLASSIC:
+				return new MemorylessRandomizer(seed);
+			default:
+				throw new IllegalArgumentException("unknown randomizer: " + name);
+		}
+	}
+
+	// a randomizer in the state it was in after dealing the given number of blocks, made again from its seed
+	// so that a saved game only has to keep the name, the seed and the count
+	static PieceRandomizer resume(String name, long seed, long dealt) {
+		PieceRandomizer randomizer = create(name, seed);
+		randomizer.skip(dealt);
+		return randomizer;
+	}
+
+}
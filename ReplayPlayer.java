@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// plays back a file written by ReplayRecorder
+// the file is memory-mapped and the events are decoded straight out of the mapping,
+// so no object is created per event
+public class ReplayPlayer {
+
+	private static final TetrisInput[] INPUTS = TetrisInput.values();
+
+	private MappedByteBuffer data;
+
+	private long seed;
+	private int speed;
+	private int rows = TetrisBoard.ROWS, columns = TetrisBoard.COLUMNS;
+	private String randomizer;
+	// the gravity of a game played in frames, null for one played in gravity ticks
+	private GravityCurve curve;
+
+	// position of the first event
+	private int eventsStart;
+
+	public ReplayPlayer(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		data.order(ByteOrder.BIG_ENDIAN);
+		if (data.limit() < 18 || data.getInt(0) != ReplayRecorder.MAGIC) {
+			throw new IOException("not a replay file: " + file);
+		}
+		int version = data.get(4);
+		if (version < 1 || version > ReplayRecorder.VERSION) {
+			throw new IOException("unsupported replay version " + version + ": " + file);
+		}
+		try {
+			readHeader(version);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("replay header cut off: " + file);
+		}
+		if (eventsStart > data.limit()) {
+			throw new IOException("replay header cut off: " + file);
+		}
+	}
+
+	private void readHeader(int version) {
+		seed = data.getLong(5);
+		speed = data.getInt(13);
+		int position = 17;
+		if (version >= 2) {
+			rows = data.getShort(position) & 0xFFFF;
+			columns = data.get(position + 2) & 0xFF;
+			position += 3;
+		}
+		if (version >= 3) {
+			int levels = data.get(position++) & 0xFF;
+			if (levels > 0) {
+				int lockDelay = data.getShort(position);
+				position += 2;
+				int[] gravity = new int[levels];
+				for (int i = 0; i < levels; i++) {
+					gravity[i] = data.getInt(position);
+					position += 4;
+				}
+				curve = new GravityCurve(gravity, lockDelay);
+			}
+		}
+		int nameLength = data.get(position);
+		byte[] name = new byte[nameLength];
+		data.get(position + 1, name);
+		randomizer = new String(name, StandardCharsets.US_ASCII);
+		eventsStart = position + 1 + nameLength;
+	}
+
+	// feeds every recorded event into the model
+	// in real time the original gaps between events are kept, otherwise the game runs as fast as possible
+	public void play(TetrisModel model, boolean realTime) throws InterruptedException {
+		model.setBoardSize(rows, columns);
+		model.setGravityCurve(curve);
+		model.setUpGame(speed, PieceRandomizer.create(randomizer, seed));
+		long start = System.nanoTime();
+		long elapsedMicros = 0;
+		int position = eventsStart;
+		int limit = data.limit();
+		events:
+		while (position < limit) {
+			// decode the varint in place
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				// a file cut off in the middle of an event, as a crash leaves it, ends with the event before
+				if (position == limit)
+					break events;
+				b = data.get(position++);
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			int code = (int) (value & 7);
+			if (code == ReplayRecorder.END)
+				break;
+			elapsedMicros += value >>> 3;
+			if (realTime) {
+				long wait = start + elapsedMicros * 1000 - System.nanoTime();
+				if (wait > 0) {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				}
+			}
+			if (code == ReplayRecorder.TICK && curve != null) {
+				model.frame();
+			} else if (code == ReplayRecorder.TICK) {
+				model.tick();
+			} else {
+				model.step(INPUTS[code]);
+			}
+		}
+	}
+
+	// counts the events and the length of the game without playing it
+	public long[] scan() {
+		long events = 0, micros = 0;
+		int position = eventsStart;
+		int limit = data.limit();
+		events:
+		while (position < limit) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (position == limit)
+					break events;
+				b = data.get(position++);
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			if ((value & 7) == ReplayRecorder.END)
+				break;
+			micros += value >>> 3;
+			events++;
+		}
+		return new long[] {events, micros};
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getSpeed() {
+		return speed;
+	}
+
+	public String getRandomizer() {
+		return randomizer;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public GravityCurve getGravityCurve() {
+		return curve;
+	}
+
+	// usage: ReplayPlayer <file or directory> [--realtime]
+	// a file is played back and its final stats are printed, a directory of replays is only scanned
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("usage: ReplayPlayer <replay file or directory> [--realtime]");
+			System.exit(1);
+		}
+		Path path = Paths.get(args[0]);
+		if (Files.isDirectory(path)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.replay")) {
+				for (Path file : files) {
+					ReplayPlayer player;
+					try {
+						player = new ReplayPlayer(file);
+					} catch (IOException e) {
+						// one bad file does not stop the scan of the others
+						System.out.println(file.getFileName() + "  skipped, " + e.getMessage());
+						continue;
+					}
+					long[] summary = player.scan();
+					System.out.println(file.getFileName() + "  " + player.getRandomizer()
+							+ " seed " + player.getSeed() + "  " + summary[0] + " events  "
+							+ (summary[1] / 1000) + " ms");
+				}
+			}
+			return;
+		}
+		boolean realTime = args.length > 1 && args[1].equals("--realtime");
+		ReplayPlayer player = new ReplayPlayer(path);
+		TetrisModel model = new TetrisModel();
+		long start = System.nanoTime();
+		player.play(model, realTime);
+		TetrisStats stats = model.getGameStats();
+		System.out.println("score " + stats.getScore() + ", lines " + stats.getLinesCleared()
+				+ ", level " + stats.getLevel() + " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+	}
+
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// writes a game as its seed followed by every input and gravity tick, so it can be played back exactly
+//
+// file layout:
+//   header: magic, version, seed, speed, rows (short), columns (byte), gravity levels (byte),
+//           lock delay (short) and the gravity of each level (int) when there are levels, randomizer name
+//   a game with gravity levels was played in frames, and each of its ticks is a frame
+//   version 2 files have no gravity levels, and version 1 files no rows or columns either
+//   events: one varint per event, (microseconds since the previous event << 3) | event code
+public class ReplayRecorder {
+
+	static final int MAGIC = 0x54524550; // "TREP"
+	static final int VERSION = 3;
+
+	// event codes, the inputs use their ordinal
+	static final int TICK = 6, END = 7;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private long lastEventTime;
+
+	public ReplayRecorder(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(1 << 16);
+	}
+
+	// called by the model when the game is set up
+	public void start(long seed, String randomizer, int speed, int rows, int columns, GravityCurve curve) {
+		byte[] name = randomizer.getBytes(StandardCharsets.US_ASCII);
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		buffer.putLong(seed);
+		buffer.putInt(speed);
+		buffer.putShort((short) rows);
+		buffer.put((byte) columns);
+		buffer.put((byte) (curve == null ? 0 : curve.getLevels()));
+		if (curve != null) {
+			buffer.putShort((short) curve.getLockDelay());
+			for (int level = 1; level <= curve.getLevels(); level++) {
+				buffer.putInt(curve.getGravity(level));
+			}
+		}
+		buffer.put((byte) name.length);
+		buffer.put(name);
+		// the header goes out at once, so a game that never ends still leaves a file that can be played
+		try {
+			flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+			channel = null;
+		}
+		lastEventTime = System.nanoTime();
+	}
+
+	public void recordInput(TetrisInput input) {
+		record(input.ordinal());
+	}
+
+	public void recordTick() {
+		record(TICK);
+	}
+
+	// writes the end marker and closes the file
+	public void close() {
+		if (channel == null)
+			return;
+		record(END);
+		try {
+			flush();
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		channel = null;
+	}
+
+	private void record(int code) {
+		if (channel == null)
+			return;
+		long now = System.nanoTime();
+		long micros = (now - lastEventTime) / 1000;
+		lastEventTime = now;
+		// a varint never takes more than ten bytes
+		if (buffer.remaining() < 10) {
+			try {
+				flush();
+			} catch (IOException e) {
+				// stop recording instead of interrupting the game
+				e.printStackTrace();
+				channel = null;
+				return;
+			}
+		}
+		putVarint(buffer, (micros << 3) | code);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	static void putVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+}
@@ -0,0 +1,330 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// keeps the result of every finished game in an append-only file, for the high scores and the history
+// of a machine over the years
+// everything runs on one thread of its own, so a game over never waits for the disk and the queries
+// never see half a write
+//
+// scores.dat: header (magic, version, record size, 0) then one fixed-width record per game
+//   ended at (long) game time in ms (int) score (int) lines (int) pieces (int) level (byte) difficulty (byte)
+//   0 (short) crc32 of the 28 bytes before it (int)
+// scores.idx: header (magic, version, records per block, records summarized) then a summary of every block
+//   earliest end (long) latest end (long) highest score at each difficulty (int, -1 when none played)
+// the index is mapped, a query reads every summary but only the blocks that can still change its answer
+// it is only ever a copy of what the records say, the blocks it has not caught up with are summarized
+// again from the records when the store is opened
+// the records are mapped as one buffer, which holds about 67 million games
+public class ScoreStore {
+
+	static final int DATA_MAGIC = 0x54534352; // "TSCR"
+	static final int INDEX_MAGIC = 0x54534958; // "TSIX"
+	static final int VERSION = 1;
+
+	static final int HEADER = 16;
+	static final int RECORD = 32;
+	static final int BLOCK_RECORDS = 4096;
+	static final int SUMMARY = 16 + 4 * GameRecord.DIFFICULTIES;
+
+	// the index is mapped in steps of this many summaries, so it is not mapped again for every block
+	private static final int INDEX_GROWTH = 1024;
+
+	private final FileChannel data;
+	private final FileChannel index;
+	private final ExecutorService writer;
+
+	// only touched by the writer thread
+	private long count;
+	private MappedByteBuffer summaries;
+	private MappedByteBuffer records;
+	private long mappedRecords;
+	private final ByteBuffer out = ByteBuffer.allocateDirect(RECORD * 256);
+	private final CRC32 crc = new CRC32();
+
+	// the store lives in the directory given by tetris.scoreDir, or in .tetris in the home directory
+	public ScoreStore() throws IOException {
+		this(Paths.get(System.getProperty("tetris.scoreDir",
+				System.getProperty("user.home") + File.separator + ".tetris")));
+	}
+
+	public ScoreStore(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		data = FileChannel.open(dir.resolve("scores.dat"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		index = FileChannel.open(dir.resolve("scores.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		writer = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "tetris-scores");
+			t.setDaemon(true);
+			return t;
+		});
+		open();
+	}
+
+	// checks both files and repairs what a crash in the middle of a write left behind
+	private void open() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		if (data.size() == 0) {
+			header.putInt(DATA_MAGIC).putInt(VERSION).putInt(RECORD).putInt(0).flip();
+			data.write(header, 0);
+		} else {
+			data.read(header, 0);
+			header.flip();
+			if (header.getInt() != DATA_MAGIC || header.getInt() != VERSION || header.getInt() != RECORD)
+				throw new IOException("not a score store of this version");
+		}
+		// a record that was only partly written, or written wrong, is cut off with everything after it
+		count = (data.size() - HEADER) / RECORD;
+		ByteBuffer last = ByteBuffer.allocate(RECORD);
+		while (count > 0) {
+			last.clear();
+			data.read(last, HEADER + (count - 1) * RECORD);
+			if (checksum(last, 0) == last.getInt(RECORD - 4))
+				break;
+			count--;
+		}
+		data.truncate(HEADER + count * RECORD);
+
+		header.clear();
+		boolean indexValid = index.size() >= HEADER && index.read(header, 0) == HEADER
+				&& header.getInt(0) == INDEX_MAGIC && header.getInt(4) == VERSION
+				&& header.getInt(8) == BLOCK_RECORDS;
+		long summarized = indexValid ? Math.min(count, header.getInt(12) & 0xFFFFFFFFL) : 0;
+		if (!indexValid) {
+			index.truncate(0);
+		}
+		mapIndex(blocks(count));
+		summaries.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putInt(8, BLOCK_RECORDS);
+		// the block the index stopped in and every one after it are summarized again
+		mapRecords();
+		for (long b = summarized / BLOCK_RECORDS; b < blocks(count); b++) {
+			rebuildSummary(b);
+		}
+		summaries.putInt(12, (int) count);
+		summaries.force();
+	}
+
+	private static long blocks(long records) {
+		return (records + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+	}
+
+	private void mapIndex(long blocks) throws IOException {
+		long capacity = (blocks / INDEX_GROWTH + 1) * INDEX_GROWTH;
+		if (summaries != null && summaries.capacity() >= HEADER + capacity * SUMMARY)
+			return;
+		summaries = index.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + capacity * SUMMARY);
+	}
+
+	// maps every record written so far, the mapping only ever covers the file as it is
+	private void mapRecords() throws IOException {
+		if (records != null && mappedRecords == count)
+			return;
+		records = data.map(FileChannel.MapMode.READ_ONLY, 0, HEADER + count * RECORD);
+		mappedRecords = count;
+	}
+
+	private void rebuildSummary(long block) {
+		clearSummary(block);
+		long end = Math.min(count, (block + 1) * BLOCK_RECORDS);
+		for (long i = block * BLOCK_RECORDS; i < end; i++) {
+			summarize(block, records, recordOffset(i));
+		}
+	}
+
+	private void clearSummary(long block) {
+		int s = summaryOffset(block);
+		summaries.putLong(s, Long.MAX_VALUE).putLong(s + 8, Long.MIN_VALUE);
+		for (int d = 0; d < GameRecord.DIFFICULTIES; d++) {
+			summaries.putInt(s + 16 + 4 * d, -1);
+		}
+	}
+
+	// adds one record to the summary of its block
+	private void summarize(long block, ByteBuffer b, int offset) {
+		int s = summaryOffset(block);
+		long endedAt = b.getLong(offset);
+		summaries.putLong(s, Math.min(summaries.getLong(s), endedAt));
+		summaries.putLong(s + 8, Math.max(summaries.getLong(s + 8), endedAt));
+		int at = s + 16 + 4 * b.get(offset + 25);
+		summaries.putInt(at, Math.max(summaries.getInt(at), b.getInt(offset + 12)));
+	}
+
+	private static int summaryOffset(long block) {
+		return (int) (HEADER + block * SUMMARY);
+	}
+
+	private static int recordOffset(long record) {
+		return (int) (HEADER + record * RECORD);
+	}
+
+	private int checksum(ByteBuffer b, int offset) {
+		crc.reset();
+		crc.update(b.duplicate().position(offset).limit(offset + RECORD - 4));
+		return (int) crc.getValue();
+	}
+
+	// writes the records after every record before them, the future completes once they are on disk
+	public CompletableFuture<Void> append(GameRecord... games) {
+		return CompletableFuture.runAsync(() -> {
+			try {
+				write(games);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}, writer);
+	}
+
+	private void write(GameRecord[] games) throws IOException {
+		int i = 0;
+		while (i < games.length) {
+			// as many records as fit in the buffer are written at once
+			out.clear();
+			while (i < games.length && out.remaining() >= RECORD) {
+				GameRecord g = games[i++];
+				int start = out.position();
+				out.putLong(g.getEndedAt()).putInt((int) Math.min(Integer.MAX_VALUE, g.getGameTimeMillis()))
+						.putInt(g.getScore()).putInt(g.getLines()).putInt(g.getPieces())
+						.put((byte) g.getLevel()).put((byte) g.getDifficulty()).putShort((short) 0);
+				out.putInt(checksum(out, start));
+			}
+			out.flip();
+			int written = out.limit() / RECORD;
+			long position = HEADER + count * RECORD;
+			while (out.hasRemaining()) {
+				position += data.write(out, position);
+			}
+			mapIndex(blocks(count + written));
+			for (int k = 0; k < written; k++) {
+				long block = (count + k) / BLOCK_RECORDS;
+				if ((count + k) % BLOCK_RECORDS == 0) {
+					clearSummary(block);
+				}
+				summarize(block, out, k * RECORD);
+			}
+			count += written;
+		}
+		// the records reach the disk before the index says it has summarized them
+		data.force(false);
+		summaries.putInt(12, (int) count);
+		summaries.force();
+	}
+
+	public CompletableFuture<Long> size() {
+		return CompletableFuture.supplyAsync(() -> count, writer);
+	}
+
+	// the best games at a difficulty, best first
+	public CompletableFuture<List<GameRecord>> topScores(int difficulty, int n) {
+		// checked here, the search on the writer thread takes at least one game to compare against
+		if (n < 1)
+			throw new IllegalArgumentException("at least one game has to be asked for: " + n);
+		return query(() -> best(difficulty, n, Long.MIN_VALUE, Long.MAX_VALUE));
+	}
+
+	// the best game at a difficulty, or at any with -1, that ended between the two times in epoch millis
+	public CompletableFuture<GameRecord> personalBest(int difficulty, long from, long to) {
+		return query(() -> {
+			List<GameRecord> best = best(difficulty, 1, from, to);
+			return best.isEmpty() ? null : best.get(0);
+		});
+	}
+
+	private interface Query<T> {
+		T run() throws IOException;
+	}
+
+	private <T> CompletableFuture<T> query(Query<T> query) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				mapRecords();
+				return query.run();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}, writer);
+	}
+
+	// the n best games with a difficulty (-1 for any) that ended in a time range
+	// the blocks are read from the one with the highest score down, and the search stops at the first block
+	// that could not get into the n best
+	private List<GameRecord> best(int difficulty, int n, long from, long to) {
+		long blocks = blocks(count);
+		ArrayList<long[]> candidates = new ArrayList<long[]>();
+		for (long b = 0; b < blocks; b++) {
+			int s = summaryOffset(b);
+			if (summaries.getLong(s + 8) < from || summaries.getLong(s) > to)
+				continue;
+			int max = -1;
+			for (int d = 0; d < GameRecord.DIFFICULTIES; d++) {
+				if (difficulty < 0 || d == difficulty) {
+					max = Math.max(max, summaries.getInt(s + 16 + 4 * d));
+				}
+			}
+			if (max >= 0) {
+				candidates.add(new long[] { b, max });
+			}
+		}
+		candidates.sort((x, y) -> Long.compare(y[1], x[1]));
+
+		// the worst of the best so far is on top, ready to be pushed out
+		PriorityQueue<GameRecord> top = new PriorityQueue<GameRecord>(Comparator.comparingInt(GameRecord::getScore));
+		for (long[] c : candidates) {
+			if (top.size() == n && c[1] <= top.peek().getScore())
+				break;
+			long end = Math.min(count, (c[0] + 1) * BLOCK_RECORDS);
+			for (long i = c[0] * BLOCK_RECORDS; i < end; i++) {
+				int o = recordOffset(i);
+				int d = records.get(o + 25);
+				if (difficulty >= 0 && d != difficulty)
+					continue;
+				int score = records.getInt(o + 12);
+				if (top.size() == n && score <= top.peek().getScore())
+					continue;
+				long endedAt = records.getLong(o);
+				if (endedAt < from || endedAt > to)
+					continue;
+				top.add(new GameRecord(endedAt, records.getInt(o + 8), score, records.getInt(o + 16),
+						records.getInt(o + 20), records.get(o + 24), d));
+				if (top.size() > n) {
+					top.poll();
+				}
+			}
+		}
+		GameRecord[] sorted = top.toArray(new GameRecord[0]);
+		Arrays.sort(sorted, Comparator.comparingInt(GameRecord::getScore).reversed());
+		return Collections.unmodifiableList(Arrays.asList(sorted));
+	}
+
+	// waits for every write that was asked for, then closes the files
+	public void close() {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(10, TimeUnit.SECONDS);
+			data.close();
+			index.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
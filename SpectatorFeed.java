@@ -0,0 +1,323 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// streams a live game to any number of local watchers, in the messages described in SpectatorState
+// a watcher that connects gets a keyframe of the whole game, then a delta of only what changed for
+// every step of the model
+//
+// each message is encoded once on the thread that runs the model and shared by every watcher, one
+// broadcaster thread writes them all without blocking
+// a watcher that falls too far behind skips the messages it has not started on and is sent a fresh
+// keyframe once it has caught up, so a slow reader costs a bounded amount of memory and never holds up
+// the game or the other watchers
+public class SpectatorFeed implements BlockObserver, Runnable {
+
+	// how many bytes may wait for one watcher before it skips ahead to a keyframe
+	private static final int MAX_QUEUED = 16 * 1024;
+
+	private final TetrisModel model;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+
+	// encoded messages on their way from the model thread to the broadcaster
+	private final ConcurrentLinkedQueue<ByteBuffer> inbox = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	// the game as the watchers know it, only touched by the broadcaster thread
+	private final SpectatorState state = new SpectatorState();
+	private final ArrayList<Watcher> watchers = new ArrayList<Watcher>();
+
+	// the messages of one gathering write and whatever a watcher sends, shared by the watchers since only the broadcaster writes
+	private final ByteBuffer[] batch = new ByteBuffer[32];
+	private final ByteBuffer discard = ByteBuffer.allocate(256);
+
+	// where the model thread encodes a message before it is copied out at its own size
+	private final ByteBuffer scratch = ByteBuffer.allocate(SpectatorState.MAX_KEYFRAME);
+
+	private volatile boolean running;
+
+	// the times a watcher skipped ahead, and the watchers now connected
+	private final AtomicLong resyncs = new AtomicLong();
+	private volatile int watcherCount;
+
+	// a port of 0 lets the system pick one, see getPort
+	public SpectatorFeed(TetrisModel model, int port) throws IOException {
+		this.model = model;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		model.registerBlockObserver(this);
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public void start() {
+		running = true;
+		Thread t = new Thread(this, "tetris-spectators");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	public int getWatcherCount() {
+		return watcherCount;
+	}
+
+	public long getResyncs() {
+		return resyncs.get();
+	}
+
+	// runs on the model thread, after every step of the model
+	@Override
+	public void blocksChanged(FrameDelta delta) {
+		ByteBuffer b = scratch;
+		b.clear();
+		TetrisStats stats = model.getGameStats();
+		boolean inProgress = model.isGameInProgress();
+		if (deltaSize(delta) >= model.getRows() * model.getColumns()) {
+			// a new game, a new grid or most of the board changed, the whole game is sent again
+			SpectatorState.putKeyframe(b, delta.getFrame(), model, inProgress, stats);
+		} else {
+			encodeDelta(b, delta, inProgress, stats);
+		}
+		// a heap buffer, a direct one costs the model thread far more to allocate than the copy into
+		// the channel's temporary direct buffer costs the broadcaster when it writes
+		ByteBuffer message = ByteBuffer.allocate(b.position());
+		message.put(b.flip()).flip();
+		inbox.offer(message.asReadOnlyBuffer());
+		selector.wakeup();
+	}
+
+	// the bytes the squares of a delta would take, a keyframe is sent instead once they take as many
+	// as the whole board, which also keeps every message within the size of a keyframe
+	private int deltaSize(FrameDelta delta) {
+		int columnBytes = SpectatorState.bytes(model.getColumns());
+		int size = SpectatorState.bytes(delta.getRows());
+		for (int i = 0; i < delta.getRows(); i++) {
+			long colMask = delta.getChangedRowMask(i);
+			if (colMask != 0) {
+				size += columnBytes + Long.bitCount(colMask);
+			}
+		}
+		return size;
+	}
+
+	private void encodeDelta(ByteBuffer b, FrameDelta delta, boolean inProgress, TetrisStats stats) {
+		b.putShort((short) 0).put(SpectatorState.DELTA).putLong(delta.getFrame());
+		int rows = delta.getRows(), columns = model.getColumns();
+		// the row bits are filled in as the changed rows are written
+		int rowBits = b.position();
+		for (int i = 0; i < SpectatorState.bytes(rows); i++) {
+			b.put((byte) 0);
+		}
+		for (int i = 0; i < rows; i++) {
+			long colMask = delta.getChangedRowMask(i);
+			if (colMask == 0)
+				continue;
+			b.put(rowBits + (i >> 3), (byte) (b.get(rowBits + (i >> 3)) | 1 << (i & 7)));
+			SpectatorState.putBits(b, colMask, columns);
+			for (int j = 0; j < columns; j++) {
+				if ((colMask & (1L << j)) != 0) {
+					b.put((byte) model.blockAt(i, j));
+				}
+			}
+		}
+		int flags = (inProgress ? SpectatorState.IN_PROGRESS : 0)
+				| (delta.isNextChanged() ? SpectatorState.NEXT : 0)
+				| (delta.isHoldChanged() ? SpectatorState.HOLD : 0)
+				| (delta.isStatsChanged() ? SpectatorState.STATS : 0);
+		SpectatorState.putParts(b, flags, model, stats);
+		b.putShort(0, (short) (b.position() - 2));
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Watcher w = (Watcher) key.attachment();
+					if (key.isReadable()) {
+						w.read();
+					}
+					if (key.isValid() && key.isWritable()) {
+						w.flush();
+					}
+				}
+				selector.selectedKeys().clear();
+				broadcast();
+			}
+			for (Watcher w : watchers) {
+				w.close();
+			}
+			selector.close();
+			server.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			// a fixed send buffer, or the system would grow it and hide a slow reader there
+			channel.setOption(StandardSocketOptions.SO_SNDBUF, MAX_QUEUED);
+			Watcher w = new Watcher(channel);
+			w.key = channel.register(selector, SelectionKey.OP_READ, w);
+			watchers.add(w);
+			watcherCount = watchers.size();
+			// the keyframe is of the game as of the last message handed out, the watcher gets every one after it
+			w.queue(state.keyframe());
+			w.flush();
+		}
+	}
+
+	// hands every message the model has made since the last pass to every watcher, then writes what it can
+	private void broadcast() {
+		ByteBuffer message;
+		boolean any = false;
+		while ((message = inbox.poll()) != null) {
+			state.apply(message.duplicate());
+			for (int i = 0; i < watchers.size(); i++) {
+				watchers.get(i).offer(message);
+			}
+			any = true;
+		}
+		if (any) {
+			for (int i = 0; i < watchers.size(); i++) {
+				watchers.get(i).flush();
+			}
+		}
+		watchers.removeIf(w -> w.closed);
+		watcherCount = watchers.size();
+	}
+
+	// one connection and the messages it has yet to be sent
+	private final class Watcher {
+
+		final SocketChannel channel;
+		SelectionKey key;
+
+		private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+		private long queued;
+		private boolean skipping;
+		boolean closed;
+
+		Watcher(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		// each watcher reads a shared message through its own view of it
+		void offer(ByteBuffer message) {
+			if (closed || skipping)
+				return;
+			// a keyframe of a big board can be larger than the limit alone, it is taken when nothing else waits
+			if (queued + message.remaining() > MAX_QUEUED && !pending.isEmpty()) {
+				// drop what has not been started on, a message that is partly written has to be finished
+				ByteBuffer head = pending.peekFirst();
+				pending.clear();
+				queued = 0;
+				if (head != null && head.position() > 0) {
+					pending.add(head);
+					queued = head.remaining();
+				}
+				skipping = true;
+				resyncs.incrementAndGet();
+				return;
+			}
+			queue(message.duplicate());
+		}
+
+		void queue(ByteBuffer message) {
+			pending.add(message);
+			queued += message.remaining();
+		}
+
+		void flush() {
+			if (closed)
+				return;
+			try {
+				while (true) {
+					while (!pending.isEmpty()) {
+						int n = 0;
+						for (ByteBuffer b : pending) {
+							batch[n++] = b;
+							if (n == batch.length)
+								break;
+						}
+						queued -= channel.write(batch, 0, n);
+						while (!pending.isEmpty() && !pending.peekFirst().hasRemaining()) {
+							pending.pollFirst();
+						}
+						if (n > 0 && batch[n - 1].hasRemaining())
+							break;
+					}
+					if (!pending.isEmpty() || !skipping)
+						break;
+					// caught up after skipping, so it starts again from the game as it is now
+					skipping = false;
+					queue(state.keyframe());
+				}
+			} catch (IOException e) {
+				close();
+				return;
+			} finally {
+				Arrays.fill(batch, null);
+			}
+			// only asks to hear when the connection can take more while something is waiting for it
+			key.interestOps(pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+
+		// watchers send nothing, reading only notices when they leave
+		void read() {
+			try {
+				discard.clear();
+				if (channel.read(discard) < 0) {
+					close();
+				}
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		void close() {
+			closed = true;
+			pending.clear();
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// it is closed either way
+			}
+		}
+
+	}
+
+}
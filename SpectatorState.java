@@ -0,0 +1,200 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// a copy of a game that is kept up to date from the messages of a spectator feed
+// the feed keeps one to greet new watchers with, and a viewer keeps one to draw
+//
+// every message starts with its length after the length field (unsigned short), its type and its frame (long)
+//   'K' rows (unsigned short) columns (byte) squares (byte each, row by row) flags next blocks held stats
+//   'D' changed rows (a bit per row) then per changed row the changed columns (a bit per column)
+//       and the new squares of those columns, then flags and the parts the flags name
+// the bits of a delta take as many bytes as the board of the last keyframe needs, lowest row or column
+// in the lowest bit of the first byte, so a standard board sends three bytes of rows and two per row
+// flags (byte)  IN_PROGRESS, NEXT for the next blocks, HOLD for the held block, STATS for the stats
+// next blocks   count (byte) and a type for each, held is a type, 0 when none
+// stats         score (int) lines (int) level (byte) message (length byte and UTF-8)
+public class SpectatorState implements GameState {
+
+	static final byte KEYFRAME = 'K';
+	static final byte DELTA = 'D';
+
+	static final int IN_PROGRESS = 1;
+	static final int NEXT = 2;
+	static final int HOLD = 4;
+	static final int STATS = 8;
+
+	// the most a message can take, with every part present and the longest message text
+	static final int MAX_PARTS = 1 + 1 + 127 + 1 + 4 + 4 + 1 + 1 + 255;
+	static final int MAX_KEYFRAME = keyframeSize(TetrisBoard.MAX_ROWS, TetrisBoard.MAX_COLUMNS);
+
+	private int rows = TetrisBoard.ROWS, columns = TetrisBoard.COLUMNS;
+	private byte[] squares = new byte[rows * columns];
+	private int[] nextTypes = new int[0];
+	private int heldType;
+	private boolean gameInProgress;
+	private final TetrisStats stats = new TetrisStats(0, 0, 0, "");
+	private long frame;
+
+	// reads one whole message, the position of the buffer is left after it
+	public void apply(ByteBuffer message) {
+		message.getShort();
+		byte type = message.get();
+		frame = message.getLong();
+		if (type == KEYFRAME) {
+			int r = message.getShort() & 0xFFFF, c = message.get() & 0xFF;
+			TetrisBoard.checkSize(r, c);
+			if (r * c != squares.length) {
+				squares = new byte[r * c];
+			}
+			rows = r;
+			columns = c;
+			message.get(squares);
+			readParts(message, 0xFF);
+		} else if (type == DELTA) {
+			// the row bits are read in place, then skipped
+			int rowBits = message.position();
+			message.position(rowBits + bytes(rows));
+			for (int i = 0; i < rows; i++) {
+				if ((message.get(rowBits + (i >> 3)) & (1 << (i & 7))) == 0)
+					continue;
+				long colMask = getBits(message, columns);
+				for (int j = 0; j < columns; j++) {
+					if ((colMask & (1L << j)) != 0) {
+						squares[i * columns + j] = message.get();
+					}
+				}
+			}
+			readParts(message, 0);
+		} else {
+			throw new IllegalArgumentException("unknown message " + type);
+		}
+	}
+
+	// a keyframe has every part, a delta only the ones its flags name
+	private void readParts(ByteBuffer message, int always) {
+		int raw = message.get();
+		gameInProgress = (raw & IN_PROGRESS) != 0;
+		int flags = raw | always;
+		if ((flags & NEXT) != 0) {
+			nextTypes = new int[message.get()];
+			for (int i = 0; i < nextTypes.length; i++) {
+				nextTypes[i] = message.get();
+			}
+		}
+		if ((flags & HOLD) != 0) {
+			heldType = message.get();
+		}
+		if ((flags & STATS) != 0) {
+			stats.setScore(message.getInt());
+			stats.setLinesCleared(message.getInt());
+			stats.setLevel(message.get());
+			byte[] text = new byte[message.get() & 0xFF];
+			message.get(text);
+			stats.setMessage(new String(text, StandardCharsets.UTF_8));
+		}
+	}
+
+	// a keyframe of this copy, direct so it is not copied again when it is written
+	public ByteBuffer keyframe() {
+		ByteBuffer b = ByteBuffer.allocateDirect(keyframeSize(rows, columns));
+		putKeyframe(b, frame, this, gameInProgress, stats);
+		return b.flip();
+	}
+
+	// the most a keyframe of a board this size can take
+	static int keyframeSize(int rows, int columns) {
+		return 2 + 1 + 8 + 3 + rows * columns + MAX_PARTS;
+	}
+
+	// the bytes that hold one bit for each of count rows or columns
+	static int bytes(int count) {
+		return (count + 7) >> 3;
+	}
+
+	// writes the low bits of a mask in the bytes that count of them need
+	static void putBits(ByteBuffer b, long mask, int count) {
+		for (int i = 0; i < count; i += 8) {
+			b.put((byte) (mask >>> i));
+		}
+	}
+
+	static long getBits(ByteBuffer b, int count) {
+		long mask = 0;
+		for (int i = 0; i < count; i += 8) {
+			mask |= (b.get() & 0xFFL) << i;
+		}
+		return mask;
+	}
+
+	static void putKeyframe(ByteBuffer b, long frame, GameState game, boolean inProgress, TetrisStats stats) {
+		int start = b.position();
+		int rows = game.getRows(), columns = game.getColumns();
+		b.putShort((short) 0).put(KEYFRAME).putLong(frame);
+		b.putShort((short) rows).put((byte) columns);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++) {
+				b.put((byte) game.blockAt(i, j));
+			}
+		}
+		putParts(b, (inProgress ? IN_PROGRESS : 0) | NEXT | HOLD | STATS, game, stats);
+		b.putShort(start, (short) (b.position() - start - 2));
+	}
+
+	static void putParts(ByteBuffer b, int flags, GameState game, TetrisStats stats) {
+		b.put((byte) flags);
+		if ((flags & NEXT) != 0) {
+			b.put((byte) game.getNextCount());
+			for (int i = 0; i < game.getNextCount(); i++) {
+				b.put((byte) game.getNextType(i));
+			}
+		}
+		if ((flags & HOLD) != 0) {
+			b.put((byte) game.getHeldType());
+		}
+		if ((flags & STATS) != 0) {
+			b.putInt(stats.getScore()).putInt(stats.getLinesCleared()).put((byte) stats.getLevel());
+			String message = stats.getMessage() == null ? "" : stats.getMessage();
+			byte[] text = message.getBytes(StandardCharsets.UTF_8);
+			int length = Math.min(255, text.length);
+			b.put((byte) length).put(text, 0, length);
+		}
+	}
+
+	public int blockAt(int row, int col) {
+		return squares[row * columns + col];
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getNextCount() {
+		return nextTypes.length;
+	}
+
+	public int getNextType(int index) {
+		return nextTypes[index];
+	}
+
+	public int getHeldType() {
+		return heldType;
+	}
+
+	public long getFrame() {
+		return frame;
+	}
+
+	public boolean isGameInProgress() {
+		return gameInProgress;
+	}
+
+	// the stats as of the last message, changed by the next one
+	public TetrisStats getStats() {
+		return stats;
+	}
+
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// the moments of a cold start, measured from the start of the JVM
+// the tetris.startupTimeline property prints the timeline once the game can be played ("print"),
+// or writes it to the given file as comma separated values
+public final class StartupTimeline {
+
+	// the marks keep plain nanoTime, which has no fixed origin, and are tied to the uptime of the JVM
+	// only when they are read, so the management classes are not loaded while the game starts
+	private static volatile long jvmStartNanos;
+	private static volatile boolean jvmStartKnown;
+
+	private static final ConcurrentLinkedQueue<Mark> marks = new ConcurrentLinkedQueue<Mark>();
+	private static final AtomicBoolean reported = new AtomicBoolean();
+
+	private static final class Mark {
+		final String name;
+		final String thread;
+		final long nanos;
+
+		Mark(String name, long nanos) {
+			this.name = name;
+			this.thread = Thread.currentThread().getName();
+			this.nanos = nanos;
+		}
+	}
+
+	private StartupTimeline() {
+	}
+
+	// records that something happened now, from any thread
+	public static void mark(String name) {
+		marks.add(new Mark(name, System.nanoTime()));
+	}
+
+	// when the JVM started, on the nanoTime clock
+	private static long jvmStart() {
+		if (!jvmStartKnown) {
+			jvmStartNanos = System.nanoTime() - ManagementFactory.getRuntimeMXBean().getUptime() * 1000000L;
+			jvmStartKnown = true;
+		}
+		return jvmStartNanos;
+	}
+
+	// milliseconds from the start of the JVM to a mark, -1 if it has not happened
+	// the first call loads the management classes, so it belongs after startup
+	public static double millisTo(String name) {
+		for (Mark m : marks) {
+			if (m.name.equals(name))
+				return (m.nanos - jvmStart()) / 1e6;
+		}
+		return -1;
+	}
+
+	// prints or writes the timeline, the first time it is called
+	public static void report() {
+		String target = System.getProperty("tetris.startupTimeline");
+		if (target == null || !reported.compareAndSet(false, true))
+			return;
+		if (target.equals("print")) {
+			print(System.out);
+			return;
+		}
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("millis,name,thread");
+		long start = jvmStart();
+		for (Mark m : sorted()) {
+			lines.add(String.format("%.3f,%s,%s", (m.nanos - start) / 1e6, m.name, m.thread));
+		}
+		try {
+			Files.write(Paths.get(target), lines);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static void print(PrintStream out) {
+		out.println("startup timeline (ms since JVM start)");
+		long start = jvmStart();
+		long previous = start;
+		for (Mark m : sorted()) {
+			out.printf("%10.1f %+9.1f  %-28s %s%n", (m.nanos - start) / 1e6, (m.nanos - previous) / 1e6, m.name,
+					m.thread);
+			previous = m.nanos;
+		}
+	}
+
+	private static ArrayList<Mark> sorted() {
+		ArrayList<Mark> list = new ArrayList<Mark>(marks);
+		list.sort((a, b) -> Long.compare(a.nanos, b.nanos));
+		return list;
+	}
+
+}
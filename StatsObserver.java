@@ -1,6 +1,7 @@
 
 public interface StatsObserver {
 
-	void statsChanged();
+	// called once after a tick or input that changed the stats, before the block observers
+	void statsChanged(FrameDelta delta);
 	
 }
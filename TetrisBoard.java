@@ -0,0 +1,378 @@
+import java.util.Arrays;
+
+public class TetrisBoard {
+
+	// number of rows (including the hidden top row) and columns on the standard board
+	static final int ROWS = 21, COLUMNS = 10;
+
+	// a row is a single long, so a board is at most 64 columns wide, and an I block laid flat has to fit
+	// where blocks spawn
+	// the height is only limited so that a keyframe of the whole board fits one spectator message
+	static final int MIN_ROWS = 6, MAX_ROWS = 1000, MIN_COLUMNS = 6, MAX_COLUMNS = 64;
+
+	private final int rowCount, columnCount;
+
+	// mask with every column of a row filled in
+	private final long fullRow;
+
+	// one bit per column for every row, bit j is set when column j is occupied
+	// the rows are a ring, row i of the board is kept in slot (base + i) % rowCount, so clearing lines
+	// and pushing up garbage move the base and a few slots instead of every row above them
+	private long[] rows;
+	private int base;
+
+	// the block type of every square, kept apart from the masks so that
+	// collision checks never have to look at colors
+	// the colors of every slot are in one array, so a board is copied in one go, and each slot
+	// knows where its colors start, so they travel with its mask and only new rows are ever written
+	private byte[] colors;
+	private int[] colorStarts;
+
+	// the saved copy of every slot that has not changed since it was saved, null once it has
+	// unchanged rows are shared by every snapshot of the board instead of being copied again
+	private Row[] saved;
+	private final Row empty;
+
+	// the highest occupied row of every column (rowCount if the column is empty)
+	// and the number of empty squares below it
+	private int[] columnTops;
+	private int[] columnHoles;
+
+	// zobrist hash of the occupied squares, and the keys of every row of a board this tall
+	private long hash;
+	private final long[][] keys;
+
+	public TetrisBoard() {
+		this(ROWS, COLUMNS);
+	}
+
+	public TetrisBoard(int rowCount, int columnCount) {
+		checkSize(rowCount, columnCount);
+		this.rowCount = rowCount;
+		this.columnCount = columnCount;
+		fullRow = columnCount == 64 ? -1L : (1L << columnCount) - 1;
+		rows = new long[rowCount];
+		colors = new byte[rowCount * columnCount];
+		colorStarts = new int[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			colorStarts[i] = i * columnCount;
+		}
+		saved = new Row[rowCount];
+		empty = new Row(0, new byte[columnCount]);
+		columnTops = new int[columnCount];
+		columnHoles = new int[columnCount];
+		Arrays.fill(columnTops, rowCount);
+		keys = Zobrist.keys(rowCount);
+	}
+
+	static void checkSize(int rowCount, int columnCount) {
+		if (rowCount < MIN_ROWS || rowCount > MAX_ROWS || columnCount < MIN_COLUMNS || columnCount > MAX_COLUMNS)
+			throw new IllegalArgumentException("a " + rowCount + "x" + columnCount + " board");
+	}
+
+	public int getRows() {
+		return rowCount;
+	}
+
+	public int getColumns() {
+		return columnCount;
+	}
+
+	public long getFullRow() {
+		return fullRow;
+	}
+
+	// copies every square of another board of the same size into this one
+	public void copyFrom(TetrisBoard other) {
+		System.arraycopy(other.rows, 0, rows, 0, rowCount);
+		System.arraycopy(other.colors, 0, colors, 0, colors.length);
+		System.arraycopy(other.colorStarts, 0, colorStarts, 0, rowCount);
+		System.arraycopy(other.saved, 0, saved, 0, rowCount);
+		base = other.base;
+		System.arraycopy(other.columnTops, 0, columnTops, 0, columnCount);
+		System.arraycopy(other.columnHoles, 0, columnHoles, 0, columnCount);
+		hash = other.hash;
+	}
+
+	// the slot that holds a row of the board
+	private int slot(int row) {
+		int s = base + row;
+		return s >= rowCount ? s - rowCount : s;
+	}
+
+	public int get(int row, int col) {
+		return colors[colorStarts[slot(row)] + col];
+	}
+
+	public void set(int row, int col, int blockType) {
+		boolean wasOccupied = isOccupied(row, col);
+		int s = slot(row);
+		colors[colorStarts[s] + col] = (byte) blockType;
+		saved[s] = null;
+		// only real blocks take up space
+		if (blockType > 0) {
+			rows[s] |= 1L << col;
+			if (wasOccupied) return;
+			hash ^= keys[row][col];
+			// the squares between a new top and the old one become holes
+			// a square under the top fills a hole
+			if (row < columnTops[col]) {
+				columnHoles[col] += columnTops[col] - row - 1;
+				columnTops[col] = row;
+			} else {
+				columnHoles[col]--;
+			}
+		} else {
+			rows[s] &= ~(1L << col);
+			if (wasOccupied) {
+				hash ^= keys[row][col];
+				updateColumn(col);
+			}
+		}
+	}
+
+	public boolean isOccupied(int row, int col) {
+		return (rows[slot(row)] & (1L << col)) != 0;
+	}
+
+	public long getRowMask(int row) {
+		return rows[slot(row)];
+	}
+
+	public boolean isRowFull(int row) {
+		return rows[slot(row)] == fullRow;
+	}
+
+	// one bit for each of the 64 rows from the first one down, set for every row that is full
+	public long getFullRows(int first) {
+		long full = 0;
+		int last = Math.min(rowCount, first + 64);
+		for (int i = first; i < last; i++) {
+			if (rows[slot(i)] == fullRow) {
+				full |= 1L << (i - first);
+			}
+		}
+		return full;
+	}
+
+	// removes a row and moves every row above it down by one
+	public void removeRow(int row) {
+		removeRows(row, 1);
+	}
+
+	// removes the rows with a bit set in the mask, bit i standing for row first + i, the rows above them
+	// move down to close the gaps and empty rows come in at the top
+	// the kept rows are moved toward whichever end of the board is nearer, then the base turns so
+	// the empty rows are at the top, so clearing lines at the bottom moves only the rows under them
+	public void removeRows(int first, long removed) {
+		if (removed == 0)
+			return;
+		int count = Long.bitCount(removed);
+		int lowest = first + 63 - Long.numberOfLeadingZeros(removed);
+		int highest = first + Long.numberOfTrailingZeros(removed);
+		if (lowest + 1 <= rowCount - highest) {
+			// the rows above the lowest removed one slide down over the removed ones
+			int to = lowest;
+			for (int from = lowest; from >= 0; from--) {
+				if (from < first || (removed & (1L << (from - first))) == 0) {
+					swapSlots(from, to--);
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				clearSlot(slot(i));
+			}
+		} else {
+			// the rows below the highest removed one slide up over the removed ones, then the whole board
+			// turns down by the number removed, which brings the freed slots round to the top
+			int to = highest;
+			for (int from = highest; from < rowCount; from++) {
+				if (from > lowest || (removed & (1L << (from - first))) == 0) {
+					swapSlots(from, to++);
+				}
+			}
+			for (int i = rowCount - count; i < rowCount; i++) {
+				clearSlot(slot(i));
+			}
+			base -= count;
+			if (base < 0) {
+				base += rowCount;
+			}
+		}
+		recount();
+	}
+
+	// pushes every row up and adds garbage rows at the bottom, given by their masks from the top one down
+	// every square of a garbage row is a GARBAGE_BLOCK
+	// returns false when an occupied square was pushed off the top of the board
+	public boolean pushGarbage(long[] masks) {
+		int count = Math.min(masks.length, rowCount);
+		boolean fits = true;
+		for (int i = 0; i < count; i++) {
+			if (rows[slot(i)] != 0) {
+				fits = false;
+			}
+		}
+		// the board turns up, so the top rows come round to the bottom and are filled with the garbage
+		base += count;
+		if (base >= rowCount) {
+			base -= rowCount;
+		}
+		for (int i = 0; i < count; i++) {
+			int s = slot(rowCount - count + i);
+			long mask = masks[masks.length - count + i] & fullRow;
+			rows[s] = mask;
+			saved[s] = null;
+			int start = colorStarts[s];
+			for (int j = 0; j < columnCount; j++) {
+				colors[start + j] = (byte) ((mask & (1L << j)) != 0 ? Block.GARBAGE_BLOCK : 0);
+			}
+		}
+		recount();
+		return fits;
+	}
+
+	private void swapSlots(int from, int to) {
+		if (from == to)
+			return;
+		int a = slot(from), b = slot(to);
+		long mask = rows[a];
+		rows[a] = rows[b];
+		rows[b] = mask;
+		int start = colorStarts[a];
+		colorStarts[a] = colorStarts[b];
+		colorStarts[b] = start;
+		Row row = saved[a];
+		saved[a] = saved[b];
+		saved[b] = row;
+	}
+
+	private void clearSlot(int s) {
+		rows[s] = 0;
+		saved[s] = null;
+		Arrays.fill(colors, colorStarts[s], colorStarts[s] + columnCount, (byte) 0);
+	}
+
+	// counts the tops, holes and hash again after rows changed places, all columns at once from the masks
+	private void recount() {
+		Arrays.fill(columnTops, rowCount);
+		Arrays.fill(columnHoles, 0);
+		long seen = 0;
+		long h = 0;
+		for (int i = 0; i < rowCount; i++) {
+			long mask = rows[slot(i)];
+			// a column is topped by the first occupied square it meets, every empty square after that is a hole
+			for (long tops = mask & ~seen; tops != 0; tops &= tops - 1) {
+				columnTops[Long.numberOfTrailingZeros(tops)] = i;
+			}
+			for (long holes = seen & ~mask; holes != 0; holes &= holes - 1) {
+				columnHoles[Long.numberOfTrailingZeros(holes)]++;
+			}
+			seen |= mask;
+			h ^= Zobrist.row(keys[i], mask);
+		}
+		hash = h;
+	}
+
+	// every row of the board from the top down, only the rows that changed since the last save are copied
+	public Row[] saveRows() {
+		Row[] copy = new Row[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			int s = slot(i);
+			Row row = saved[s];
+			if (row == null) {
+				// every empty row is the same one
+				int start = colorStarts[s];
+				row = saved[s] = rows[s] == 0 ? empty
+						: new Row(rows[s], Arrays.copyOfRange(colors, start, start + columnCount));
+			}
+			copy[i] = row;
+		}
+		return copy;
+	}
+
+	// puts back rows saved from a board of the same size, a slot that still holds its saved row is left alone
+	public void restoreRows(Row[] copy) {
+		for (int i = 0; i < rowCount; i++) {
+			int s = slot(i);
+			Row row = copy[i];
+			if (saved[s] == row)
+				continue;
+			rows[s] = row.mask;
+			System.arraycopy(row.colors, 0, colors, colorStarts[s], columnCount);
+			saved[s] = row;
+		}
+		recount();
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	// recounts the top and holes of a column from the masks
+	private void updateColumn(int col) {
+		long bit = 1L << col;
+		int top = rowCount;
+		int holes = 0;
+		for (int i = 0; i < rowCount; i++) {
+			if ((rows[slot(i)] & bit) != 0) {
+				if (top == rowCount) top = i;
+			} else if (top != rowCount) {
+				holes++;
+			}
+		}
+		columnTops[col] = top;
+		columnHoles[col] = holes;
+	}
+
+	public int getColumnTop(int col) {
+		return columnTops[col];
+	}
+
+	public int getColumnHeight(int col) {
+		return rowCount - columnTops[col];
+	}
+
+	public int getColumnHoles(int col) {
+		return columnHoles[col];
+	}
+
+	// finds the row a block shape comes to rest on when dropped straight down from (row, col)
+	// returns -1 if some part of the shape is already below the top of its column,
+	// since then the column tops cannot tell where it stops
+	public int getLandingRow(Block.Shape shape, int row, int col) {
+		int landing = Integer.MAX_VALUE;
+		for (int c = shape.left; c <= shape.right; c++) {
+			int bottom = shape.columnBottoms[c];
+			if (bottom < 0) continue;
+			int top = columnTops[col + c];
+			if (row + bottom >= top) {
+				return -1;
+			}
+			landing = Math.min(landing, top - bottom - 1);
+		}
+		return landing == Integer.MAX_VALUE ? -1 : landing;
+	}
+
+	// checks if the mask of a block row lands on any occupied square of the given board row
+	// the mask is relative to the column col, which may be negative
+	public boolean collides(int row, int col, int mask) {
+		return (shift(mask, col) & rows[slot(row)]) != 0;
+	}
+
+	// moves a block row mask to its column on the board
+	static long shift(int mask, int col) {
+		return col >= 0 ? (long) mask << col : mask >>> -col;
+	}
+
+	// one saved row, never changed once it is made, so any number of snapshots can share it
+	static final class Row {
+		final long mask;
+		private final byte[] colors;
+
+		private Row(long mask, byte[] colors) {
+			this.mask = mask;
+			this.colors = colors;
+		}
+	}
+
+}
@@ -0,0 +1,417 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// plays the game by trying every rotation and column of the current block, the held block
+// and the next blocks, and scoring the boards they leave behind
+// every placement of the first block is searched as its own fork/join task, so the search spreads over all cores
+// boards are plain row masks kept in arrays allocated once per task, so search nodes do not allocate
+// the same board is often reached by placing blocks in a different order, so the scores of searched
+// boards are kept in a transposition table keyed by the board's zobrist hash and the blocks still to come
+public class TetrisBot {
+
+	// weights of the board evaluation
+	private static final double HEIGHT = -0.510066, LINES = 0.760666, HOLES = -0.35663,
+			BUMPINESS = -0.184483, TOP_OUT = -1000;
+
+	// a placement of the current block: whether to hold first, then the orientation and column to drop it at
+	public static final class Move {
+		final boolean hold;
+		final int orientation, column;
+		volatile double score = Double.NEGATIVE_INFINITY;
+
+		Move(boolean hold, int orientation, int column) {
+			this.hold = hold;
+			this.orientation = orientation;
+			this.column = column;
+		}
+
+		public boolean isHold() {
+			return hold;
+		}
+
+		public int getOrientation() {
+			return orientation;
+		}
+
+		public int getColumn() {
+			return column;
+		}
+
+		public double getScore() {
+			return score;
+		}
+	}
+
+	// what the bot needs to know about a game, copied so the search can run off the game's thread
+	public static final class Position {
+		final long[] rows;
+		final int columns;
+		final long hash;
+		final int currentType, heldType;
+		final boolean canHold;
+		final int[] nextTypes;
+
+		Position(TetrisModel model) {
+			TetrisBoard board = model.getBoard();
+			rows = new long[board.getRows()];
+			columns = board.getColumns();
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = board.getRowMask(i);
+			}
+			hash = model.getBoard().getHash();
+			currentType = model.getCurrentBlock().getBlockType();
+			heldType = model.getHeldBlock() == null ? 0 : model.getHeldBlock().getBlockType();
+			canHold = !model.isAlreadyHeld() && heldType != currentType;
+			nextTypes = new int[model.getNextBlocks().size()];
+			for (int i = 0; i < nextTypes.length; i++) {
+				nextTypes[i] = model.getNextBlocks().get(i).getBlockType();
+			}
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final int depth;
+	private final long budgetNanos;
+	private final TranspositionTable table;
+
+	// depth is the number of blocks placed along every line of the search
+	// the search stops going deeper once the time budget is used up
+	public TetrisBot(ForkJoinPool pool, int depth, long budgetMillis) {
+		this(pool, depth, budgetMillis, new TranspositionTable(1 << 20, TranspositionTable.Policy.DEPTH_PREFERRED));
+	}
+
+	// the table may be null to search without caching
+	public TetrisBot(ForkJoinPool pool, int depth, long budgetMillis, TranspositionTable table) {
+		this.pool = pool;
+		this.depth = depth;
+		this.budgetNanos = budgetMillis * 1000000;
+		this.table = table;
+	}
+
+	public TranspositionTable getTable() {
+		return table;
+	}
+
+	public Position capture(TetrisModel model) {
+		return new Position(model);
+	}
+
+	public Move findMove(TetrisModel model) {
+		return search(capture(model));
+	}
+
+	// makes a move through the same inputs a player would use
+	public static void play(TetrisModel model, Move move) {
+		if (move.hold) {
+			model.step(TetrisInput.HOLD);
+		}
+		for (int o = model.getCurrentBlock().getOrientation(); o != move.orientation; o = (o + 1) % 4) {
+			model.step(TetrisInput.ROTATE);
+		}
+		while (model.isGameInProgress() && model.getCurrentBlock().getCol() > move.column) {
+			int col = model.getCurrentBlock().getCol();
+			model.step(TetrisInput.MOVE_LEFT);
+			if (model.getCurrentBlock().getCol() == col)
+				break;
+		}
+		while (model.isGameInProgress() && model.getCurrentBlock().getCol() < move.column) {
+			int col = model.getCurrentBlock().getCol();
+			model.step(TetrisInput.MOVE_RIGHT);
+			if (model.getCurrentBlock().getCol() == col)
+				break;
+		}
+		model.step(TetrisInput.HARD_DROP);
+	}
+
+	// returns the best move, or null if the block cannot be placed anywhere
+	public Move search(Position position) {
+		long deadline = System.nanoTime() + budgetNanos;
+		if (table != null) {
+			table.newSearch();
+		}
+		ArrayList<PlacementTask> tasks = new ArrayList<PlacementTask>();
+		addPlacements(tasks, position, false, position.currentType, sequence(position.nextTypes, 0), deadline);
+		if (position.canHold) {
+			// holding with nothing held plays the first next block and skips it in the preview
+			if (position.heldType == 0) {
+				addPlacements(tasks, position, true, position.nextTypes[0],
+						sequence(position.nextTypes, 1), deadline);
+			} else {
+				addPlacements(tasks, position, true, position.heldType,
+						sequence(position.nextTypes, 0), deadline);
+			}
+		}
+		if (tasks.isEmpty())
+			return null;
+
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		Move best = null;
+		for (PlacementTask task : tasks) {
+			if (best == null || task.move.score > best.score) {
+				best = task.move;
+			}
+		}
+		return best;
+	}
+
+	// the types of the blocks after the first one, limited by the depth of the search
+	private int[] sequence(int[] nextTypes, int from) {
+		int length = Math.max(0, Math.min(depth - 1, nextTypes.length - from));
+		int[] types = new int[length];
+		System.arraycopy(nextTypes, from, types, 0, length);
+		return types;
+	}
+
+	private void addPlacements(ArrayList<PlacementTask> tasks, Position position, boolean hold,
+			int type, int[] following, long deadline) {
+		int[] range = new int[2];
+		for (int o = 0; o < distinctOrientations(type); o++) {
+			if (!reachableColumns(position.rows, position.columns, type, o, range))
+				continue;
+			for (int col = range[0]; col <= range[1]; col++) {
+				tasks.add(new PlacementTask(position.rows, position.columns, position.hash, new Move(hold, o, col),
+						type, following, deadline));
+			}
+		}
+	}
+
+	// searches everything below one placement of the first block
+	private final class PlacementTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long[] start;
+		private final int columns;
+		private final long startHash;
+		private final Move move;
+		private final int type;
+		private final int[] following;
+		private final long deadline;
+
+		// one board and hash per level of the search, and the blocks still to come at every level
+		private long[][] boards;
+		private long[][] keys;
+		private long[] hashes;
+		private long[] contexts;
+		// scratch space for the evaluation and the table
+		private int[] range;
+		private int[] heights;
+		private double[] cached;
+		// set once the time budget ran out, scores after that are not deep enough to be stored
+		private boolean cutOff;
+
+		PlacementTask(long[] start, int columns, long startHash, Move move, int type, int[] following, long deadline) {
+			this.start = start;
+			this.columns = columns;
+			this.startHash = startHash;
+			this.move = move;
+			this.type = type;
+			this.following = following;
+			this.deadline = deadline;
+		}
+
+		@Override
+		protected void compute() {
+			int levels = following.length + 1;
+			boards = new long[levels][start.length];
+			keys = Zobrist.keys(start.length);
+			hashes = new long[levels];
+			contexts = new long[levels];
+			for (int level = 0; level < levels; level++) {
+				contexts[level] = context(following, level);
+			}
+			range = new int[2];
+			heights = new int[columns];
+			cached = new double[1];
+			int cleared = drop(start, startHash, 0, type, move.orientation, move.column);
+			move.score = LINES * cleared + search(0);
+		}
+
+		// places a block on the board of one level to make the board of the next level
+		private int drop(long[] from, long fromHash, int level, int type, int orientation, int col) {
+			Block.Shape shape = Block.getShape(type, orientation);
+			int row = landingRow(from, columns, shape, col);
+			long[] to = boards[level];
+			int cleared = place(from, to, columns, shape, row, col);
+			if (cleared == 0) {
+				// only the squares of the block were added
+				long hash = fromHash;
+				for (int i = shape.top; i <= shape.bottom; i++) {
+					hash ^= Zobrist.row(keys[row + i], TetrisBoard.shift(shape.rowMasks[i], col));
+				}
+				hashes[level] = hash;
+			} else {
+				hashes[level] = Zobrist.board(to);
+			}
+			return cleared;
+		}
+
+		// the best score reachable from the board at this level, not counting lines cleared before it
+		private double search(int level) {
+			long[] board = boards[level];
+			// the last level is only evaluated, which costs about as much as a table lookup
+			if (level == following.length) {
+				return evaluate(board, heights);
+			}
+			long key = hashes[level] ^ contexts[level];
+			if (table != null && table.lookup(key, cached)) {
+				return cached[0];
+			}
+			if (System.nanoTime() > deadline) {
+				cutOff = true;
+				return evaluate(board, heights);
+			}
+			int next = following[level];
+			double best = Double.NEGATIVE_INFINITY;
+			for (int o = 0; o < distinctOrientations(next); o++) {
+				if (!reachableColumns(board, columns, next, o, range))
+					continue;
+				int from = range[0], to = range[1];
+				for (int col = from; col <= to; col++) {
+					int cleared = drop(board, hashes[level], level + 1, next, o, col);
+					best = Math.max(best, LINES * cleared + search(level + 1));
+				}
+			}
+			// a block that cannot be placed anywhere ends the game
+			if (best == Double.NEGATIVE_INFINITY) {
+				best = evaluate(board, heights) + TOP_OUT;
+			}
+			store(key, best, following.length - level);
+			return best;
+		}
+
+		private void store(long key, double score, int depth) {
+			if (table != null && !cutOff) {
+				table.store(key, score, depth);
+			}
+		}
+	}
+
+	// mixes the types of the blocks still to come into a key, so the same board is only shared
+	// between parts of the search that go on to place the same blocks
+	static long context(int[] following, int level) {
+		long h = 0x9E3779B97F4A7C15L;
+		for (int i = level; i < following.length; i++) {
+			h = (h ^ following[i]) * 0xBF58476D1CE4E5B9L;
+			h ^= h >>> 31;
+		}
+		return h;
+	}
+
+	// rotations of the O block, and half turns of the I, S and Z blocks, only shift the same squares
+	static int distinctOrientations(int type) {
+		if (type == Block.O_BLOCK)
+			return 1;
+		if (type == Block.I_BLOCK || type == Block.S_BLOCK || type == Block.Z_BLOCK)
+			return 2;
+		return 4;
+	}
+
+	// finds the columns a block can be moved to after rotating it where it spawns,
+	// following the same rules as the model: rotate in place first, then move sideways one column at a time
+	static boolean reachableColumns(long[] rows, int columns, int type, int orientation, int[] range) {
+		int spawn = Block.spawnColumn(columns);
+		Block.Shape shape = Block.getShape(type, 0);
+		if (!fits(rows, columns, shape, 0, spawn))
+			return false;
+		for (int o = 1; o <= orientation; o++) {
+			shape = Block.getShape(type, o);
+			if (!fits(rows, columns, shape, 0, spawn))
+				return false;
+		}
+		int left = spawn, right = spawn;
+		while (fits(rows, columns, shape, 0, left - 1)) {
+			left--;
+		}
+		while (fits(rows, columns, shape, 0, right + 1)) {
+			right++;
+		}
+		range[0] = left;
+		range[1] = right;
+		return true;
+	}
+
+	static boolean fits(long[] rows, int columns, Block.Shape shape, int row, int col) {
+		if (col + shape.left < 0 || col + shape.right >= columns || row + shape.bottom >= rows.length)
+			return false;
+		for (int i = shape.top; i <= shape.bottom; i++) {
+			if ((TetrisBoard.shift(shape.rowMasks[i], col) & rows[row + i]) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	// the row a block dropped from the spawn row comes to rest on
+	static int landingRow(long[] rows, int columns, Block.Shape shape, int col) {
+		int row = 0;
+		while (fits(rows, columns, shape, row + 1, col)) {
+			row++;
+		}
+		return row;
+	}
+
+	// copies the board with a block added at the given row and clears the completed lines
+	// returns the number of lines cleared
+	static int place(long[] from, long[] to, int columns, Block.Shape shape, int row, int col) {
+		System.arraycopy(from, 0, to, 0, from.length);
+		for (int i = shape.top; i <= shape.bottom; i++) {
+			to[row + i] |= TetrisBoard.shift(shape.rowMasks[i], col);
+		}
+		// like the model, only the visible rows can be cleared
+		long fullRow = columns == 64 ? -1L : (1L << columns) - 1;
+		int cleared = 0;
+		int write = to.length - 1;
+		for (int r = to.length - 1; r >= 0; r--) {
+			if (r >= 1 && to[r] == fullRow) {
+				cleared++;
+				continue;
+			}
+			to[write--] = to[r];
+		}
+		while (write >= 0) {
+			to[write--] = 0;
+		}
+		return cleared;
+	}
+
+	// scores a board by its height, holes and bumpiness, higher is better
+	// heights has one entry per column of the board
+	static double evaluate(long[] rows, int[] heights) {
+		long seen = 0;
+		int holes = 0;
+		for (int r = 0; r < rows.length; r++) {
+			long row = rows[r];
+			// squares under a block that are still empty
+			holes += Long.bitCount(seen & ~row);
+			long tops = row & ~seen;
+			while (tops != 0) {
+				int col = Long.numberOfTrailingZeros(tops);
+				heights[col] = rows.length - r;
+				tops &= tops - 1;
+			}
+			seen |= row;
+		}
+		int aggregate = 0, bumpiness = 0;
+		for (int c = 0; c < heights.length; c++) {
+			int height = (seen & (1L << c)) != 0 ? heights[c] : 0;
+			heights[c] = height;
+			aggregate += height;
+			if (c > 0) {
+				bumpiness += Math.abs(height - heights[c - 1]);
+			}
+		}
+		double score = HEIGHT * aggregate + HOLES * holes + BUMPINESS * bumpiness;
+		// blocks in the top rows leave no room for the next block to spawn
+		if ((rows[0] | rows[1]) != 0) {
+			score += TOP_OUT;
+		}
+		return score;
+	}
+
+}
@@ -1,13 +1,92 @@
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 public class TetrisController implements ActionListener, KeyListener, StatsObserver, BlockObserver {
 
 	private TetrisModel model;
 	private TetrisView view;
 	
+	// drives the gravity of the model in real time, set to go off when the next frame is due
+	// it may fire late, the clock then plays every frame that has come due
+	private Timer gameTimer;
+	private FrameClock clock;
+	
+	// runs the model on its own thread instead of the timer when tetris.simulationThread is set
+	private TetrisSimulation simulation;
+	
+	// moves the block while the keys are held, with timing set by the tetris.das, tetris.arr and
+	// tetris.softDropFactor properties
+	// without the simulation thread it is run on the event thread by a timer set to its next repeat
+	private InputEngine inputEngine;
+	private Timer inputTimer;
+	
+	// streams the game to local watchers on the port given by tetris.spectatorPort
+	private SpectatorFeed spectators;
+	
+	// every finished game is kept, the store is opened and written off the event thread
+	private CompletableFuture<ScoreStore> scores;
+	private int difficulty;
+	
+	// the bot plays the game on its own in the AI mode
+	// it searches off the event thread and makes its move once the search is done
+	private ForkJoinPool botPool;
+	private TetrisBot bot;
+	private boolean botPlaying;
+	private boolean botThinking;
+	private Block botBlock;
+	
+	// practice games save the game every time a block spawns, the Z key takes back the last block
+	// even after the game is over, and practice games are not kept with the scores
+	private boolean practice;
+	private ArrayDeque<TetrisModel.Snapshot> history = new ArrayDeque<TetrisModel.Snapshot>();
+	
 	public TetrisController(TetrisModel m, TetrisView v) {
 		this.model = m;
 		this.view = v;
+		// every game is played on a board of this size, 21 rows (one hidden) by 10 columns by default
+		model.setBoardSize(Integer.getInteger("tetris.rows", TetrisBoard.ROWS),
+				Integer.getInteger("tetris.columns", TetrisBoard.COLUMNS));
+		// the game is played in frames, with the gravity of every level from tetris.gravityCurve
+		model.setGravityCurve(GravityCurve.fromProperties());
+		if (Boolean.getBoolean("tetris.simulationThread")) {
+			// the simulation observes the model first, so its snapshot is ready before the view repaints
+			simulation = new TetrisSimulation(model);
+			view.setSimulation(simulation);
+		}
+		inputEngine = new InputEngine(model, Integer.getInteger("tetris.das", 167),
+				Integer.getInteger("tetris.arr", 33), Integer.getInteger("tetris.softDropFactor", 20));
+		if (simulation != null) {
+			simulation.setInputEngine(inputEngine);
+		} else {
+			inputTimer = new Timer(0, e -> updateInput());
+			inputTimer.setRepeats(false);
+		}
+		scores = CompletableFuture.supplyAsync(() -> {
+			try {
+				return new ScoreStore();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		Integer spectatorPort = Integer.getInteger("tetris.spectatorPort");
+		if (spectatorPort != null) {
+			try {
+				spectators = new SpectatorFeed(model, spectatorPort);
+				spectators.start();
+			} catch (IOException e) {
+				// the game is played all the same, only nobody can watch it
+				e.printStackTrace();
+			}
+		}
 		model.registerBlockObserver(this);
 		model.registerStatsObserver(this);
 		view.addActionListener(this);
@@ -20,6 +99,8 @@ public class TetrisController implements ActionListener, KeyListener, StatsObser
 		if (command.equals("Main Menu")) {
 			view.showPanel("MenuPanel");
 			view.setMainMenuButtonVisible(false);
+			practice = false;
+			history.clear();
 			return;
 		}
 		if (command.equals("On")) {
@@ -41,6 +122,8 @@ public class TetrisController implements ActionListener, KeyListener, StatsObser
 			return;
 		}
 		
+		botPlaying = command.equals("AI");
+		practice = command.equals("Practice");
 		if (command.equals("Easy")) {
 			doNewGame(800);
 		} else if (command.equals("Medium")) {
@@ -49,14 +132,34 @@ public class TetrisController implements ActionListener, KeyListener, StatsObser
 			doNewGame(100);
 		} else if (command.equals("Adaptive")) {
 			doNewGame(1000);
+		} else if (command.equals("AI")) {
+			// the bot has to think within the gravity interval of the hard setting
+			doNewGame(100);
+		} else if (command.equals("Practice")) {
+			doNewGame(800);
 		}
 		view.showPanel("GamePanel");
         view.getGamePanel().requestFocusInWindow();
 	}
     
     public void doNewGame(int speed) {
-    	model.setUpGame(speed);
+    	stopTimer();
+    	difficulty = GameRecord.difficultyOf(speed, botPlaying);
+    	// the randomizer and seed can be fixed from the command line to reproduce a game
+    	String randomizer = System.getProperty("tetris.randomizer", BagRandomizer.SEVEN_BAG);
+    	String seed = System.getProperty("tetris.seed");
+    	startRecording();
+    	history.clear();
+    	model.setUpGame(speed, PieceRandomizer.create(randomizer,
+    			seed != null ? Long.parseLong(seed) : System.nanoTime()));
         model.setGameInProgress(true);
+        inputEngine.reset();
+        startGravity();
+        // the bot is only touched on the thread that owns the model, the simulation thread once it runs
+        onModelThread(() -> {
+        	botBlock = null;
+        	playBot();
+        });
         view.showPanel("GamePanel");
         if (view.isMusicOn()) {
             view.playMusic("tetristheme.wav");
@@ -64,48 +167,222 @@ public class TetrisController implements ActionListener, KeyListener, StatsObser
         view.repaint();
     }
     
+    // starts the timer or the simulation thread that makes the blocks fall
+    private void startGravity() {
+        if (simulation != null) {
+        	simulation.start();
+        } else {
+	        clock = new FrameClock();
+	        gameTimer = new Timer(0, e -> playFrames());
+	        gameTimer.setRepeats(false);
+	        clock.start(System.nanoTime());
+	        playFrames();
+        }
+    }
+    
+    // plays the frames that have come due on the event thread, then sets the timer for the next one
+    private void playFrames() {
+    	if (gameTimer == null)
+    		return;
+    	for (int due = clock.due(System.nanoTime()); due > 0 && model.isGameInProgress(); due--) {
+    		model.frame();
+    	}
+    	if (gameTimer != null && model.isGameInProgress()) {
+    		long wait = clock.nextDue() - System.nanoTime();
+    		gameTimer.setInitialDelay((int) Math.max(0, (wait + 999999) / 1000000));
+    		gameTimer.start();
+    	}
+    }
+    
+    // takes back the block in play and the block before it, to where that block had just spawned
+    // always called on the thread that owns the model
+    private void undo() {
+    	// the newest snapshot is of the block in play
+    	if (history.size() < 2)
+    		return;
+    	history.pop();
+    	boolean wasOver = !model.isGameInProgress();
+    	model.restore(history.peek());
+    	inputEngine.reset();
+    	if (wasOver) {
+    		// a game taken back from its end goes on again
+    		onEventThread(() -> {
+    			view.setMainMenuButtonVisible(false);
+    			startGravity();
+    			if (view.isMusicOn()) {
+    				view.playMusic("tetristheme.wav");
+    			}
+    		});
+    	}
+    }
+    
     @Override
 	public void keyPressed(KeyEvent e) {
+		if (practice && e.getKeyCode() == KeyEvent.VK_Z) {
+			onModelThread(this::undo);
+			return;
+		}
 		// if game is not started, return
-		if (!model.isGameInProgress())
+		if (!isGameRunning() || botPlaying)
 			return;
 		
-		int code = e.getKeyCode();
-		int row = model.getCurrentBlock().getRow();
-		int col = model.getCurrentBlock().getCol();
-		if (code == KeyEvent.VK_LEFT) {
-			model.editBlockPosition(row, col - 1);
-		} else if (code == KeyEvent.VK_RIGHT) {
-			model.editBlockPosition(row, col + 1);
-		} else if (code == KeyEvent.VK_DOWN) {
-			model.editBlockPosition(row + 1, col);
-		} else if (code == KeyEvent.VK_UP) {
-			model.rotateBlock();
-		} else if (code == KeyEvent.VK_SPACE) {
-			model.hardDrop();
-		} else if (code == KeyEvent.VK_C) {
-			model.holdBlock();
-		}
-		view.repaint();
+		TetrisInput input = toInput(e.getKeyCode());
+		if (input != null) {
+			inputEngine.press(input, System.nanoTime());
+			updateInput();
+		}
 	}
 	
 	@Override
 	public void keyTyped(KeyEvent e) {}
 
 	@Override
-	public void keyReleased(KeyEvent e) {}
+	public void keyReleased(KeyEvent e) {
+		TetrisInput input = toInput(e.getKeyCode());
+		if (input != null) {
+			inputEngine.release(input, System.nanoTime());
+			updateInput();
+		}
+	}
+	
+	private TetrisInput toInput(int code) {
+		switch (code) {
+			case KeyEvent.VK_LEFT:
+				return TetrisInput.MOVE_LEFT;
+			case KeyEvent.VK_RIGHT:
+				return TetrisInput.MOVE_RIGHT;
+			case KeyEvent.VK_DOWN:
+				return TetrisInput.SOFT_DROP;
+			case KeyEvent.VK_UP:
+				return TetrisInput.ROTATE;
+			case KeyEvent.VK_SPACE:
+				return TetrisInput.HARD_DROP;
+			case KeyEvent.VK_C:
+				return TetrisInput.HOLD;
+			default:
+				return null;
+		}
+	}
+	
+	// lets the input engine make the moves that are due, on the thread that owns the model
+	private void updateInput() {
+		if (simulation != null) {
+			simulation.wake();
+			return;
+		}
+		inputTimer.stop();
+		long now = System.nanoTime();
+		inputEngine.update(now);
+		long next = inputEngine.nextDue();
+		if (next != Long.MAX_VALUE) {
+			inputTimer.setInitialDelay((int) Math.max(0, (next - now + 999999) / 1000000));
+			inputTimer.start();
+		}
+	}
 
 	@Override
-	public void blocksChanged() {
-		view.repaint();
+	public void blocksChanged(FrameDelta delta) {
+		if (practice && (delta.isNewGame() || delta.isSpawned())) {
+			history.push(model.save());
+		}
+		view.repaintChanged(delta);
+		playBot();
 	}
 
 	@Override
-	public void statsChanged() {
-		view.setStats(model.getGameStats());
-		if (!model.isGameInProgress()) {
-			view.setMainMenuButtonVisible(true);
+	public void statsChanged(FrameDelta delta) {
+		// the labels are updated on the event thread from a copy, the model may run on the simulation thread
+		TetrisStats s = model.getGameStats();
+		final TetrisStats stats = new TetrisStats(s.getScore(), s.getLinesCleared(), s.getLevel(), s.getMessage());
+		final boolean gameOver = delta.isGameOver();
+		if (gameOver && !practice) {
+			GameRecord record = GameRecord.of(s, difficulty);
+			scores.thenCompose(store -> store.append(record)).exceptionally(error -> {
+				// the game is over all the same, only it is not kept
+				error.printStackTrace();
+				return null;
+			});
+		}
+		onEventThread(() -> {
+			view.setStats(stats);
+			if (gameOver) {
+				stopTimer();
+				view.setMainMenuButtonVisible(true);
+			}
+		});
+	}
+	
+	// stops the timer or the simulation thread, whichever drives the game
+	private void stopTimer() {
+		if (gameTimer != null) {
+			gameTimer.stop();
+			gameTimer = null;
+		}
+		if (simulation != null) {
+			simulation.stop();
+		}
+	}
+	
+	private boolean isGameRunning() {
+		return simulation != null ? simulation.isRunning() : model.isGameInProgress();
+	}
+	
+	private void onEventThread(Runnable task) {
+		if (SwingUtilities.isEventDispatchThread()) {
+			task.run();
+		} else {
+			SwingUtilities.invokeLater(task);
+		}
+	}
+	
+	// runs a task on the thread that owns the model
+	private void onModelThread(Runnable task) {
+		if (simulation != null && simulation.isRunning()) {
+			simulation.execute(task);
+		} else {
+			SwingUtilities.invokeLater(task);
+		}
+	}
+	
+	// every game is recorded into the directory given by the tetris.replayDir property, if it is set
+	private void startRecording() {
+		String dir = System.getProperty("tetris.replayDir");
+		if (dir == null)
+			return;
+		try {
+			Path replayDir = Paths.get(dir);
+			Files.createDirectories(replayDir);
+			Path file = replayDir.resolve("game-" + System.currentTimeMillis() + ".replay");
+			model.setRecorder(new ReplayRecorder(file));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// starts a search for the current block if the bot is playing and has not moved it yet
+	// always called on the thread that owns the model
+	private void playBot() {
+		if (!botPlaying || botThinking || !model.isGameInProgress() || model.getCurrentBlock() == botBlock)
+			return;
+		if (bot == null) {
+			botPool = new ForkJoinPool();
+			bot = new TetrisBot(botPool, 3, 80);
 		}
-		view.repaint();
+		final Block block = model.getCurrentBlock();
+		final TetrisBot.Position position = bot.capture(model);
+		botBlock = block;
+		botThinking = true;
+		CompletableFuture.supplyAsync(() -> bot.search(position), botPool)
+			.whenComplete((move, error) -> onModelThread(() -> {
+				botThinking = false;
+				if (error != null) {
+					error.printStackTrace();
+				} else if (move != null && botPlaying && model.isGameInProgress()
+						&& model.getCurrentBlock() == block) {
+					TetrisBot.play(model, move);
+				}
+				// the block may have locked while the bot was thinking
+				playBot();
+			}));
 	}
 }
@@ -0,0 +1,10 @@
+
+// the actions a player can take on the current block
+public enum TetrisInput {
+	MOVE_LEFT,
+	MOVE_RIGHT,
+	SOFT_DROP,
+	ROTATE,
+	HARD_DROP,
+	HOLD
+}
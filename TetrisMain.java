@@ -1,25 +1,36 @@
 
 import java.awt.*;
-import java.awt.event.KeyEvent;
-import java.awt.event.KeyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 
 public class TetrisMain {
 	
-	public static void main(String[] args) {        
+	public static void main(String[] args) {
+		StartupTimeline.mark("main");
+		// Swing is only touched on the event thread
+		SwingUtilities.invokeLater(TetrisMain::showView);
+    }
+	
+	private static void showView() {
         TetrisModel model = new TetrisModel();
         TetrisView view = new TetrisView(model);
         view.setSize(800, 650);
-		view.setLocation(100, 100);
-		view.setVisible(true);
 		
+		// the frame is placed before it is shown, so it only appears once
 		Dimension screensize = Toolkit.getDefaultToolkit().getScreenSize();
         view.setLocation( (screensize.width - view.getWidth())/2,
                 (screensize.height - view.getHeight())/2 );
         view.setDefaultCloseOperation( JFrame.EXIT_ON_CLOSE );
         view.setResizable(false);  
+        view.addWindowListener(new WindowAdapter() {
+        	public void windowOpened(WindowEvent e) {
+        		StartupTimeline.mark("frame visible");
+        	}
+        });
         view.setVisible(true);
         view.getGamePanel().requestFocusInWindow();
-    }
+	}
 }
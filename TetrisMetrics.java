@@ -0,0 +1,203 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// counts what the game does and how long it takes, for ops tooling to read over JMX while games are live
+// nothing is recorded unless tetris.metrics is set, every place that records checks ENABLED first,
+// so with it off the checks fold away and the timing of the game is what it was
+// recording only bumps striped counters and fixed buckets, it never allocates or locks
+//
+// with it on the metrics are registered as tetris:type=Metrics the first time the game touches them,
+// and a daemon thread works out the percentiles and rates of each interval of tetris.metricsInterval
+// seconds (10 by default)
+public final class TetrisMetrics implements TetrisMetricsMXBean {
+
+	public static final boolean ENABLED = Boolean.getBoolean("tetris.metrics");
+
+	private static final Histogram tick = new Histogram();
+	private static final Histogram input = new Histogram();
+	private static final Histogram paint = new Histogram();
+	private static final Histogram dispatch = new Histogram();
+
+	private static final LongAdder pieces = new LongAdder();
+	// lines cleared at once, index 1 to 4
+	private static final LongAdder[] clears = {
+			new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder() };
+
+	private static final TetrisMetrics instance = new TetrisMetrics();
+
+	static {
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+						new ObjectName("tetris:type=Metrics"));
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+			Thread t = new Thread(instance::sample, "tetris-metrics");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	private final int intervalSeconds = Integer.getInteger("tetris.metricsInterval", 10);
+
+	// the last interval, replaced as a whole by the sampling thread
+	private volatile Interval last = new Interval();
+
+	private TetrisMetrics() {
+	}
+
+	public static void recordTick(long nanos) {
+		tick.record(nanos);
+	}
+
+	public static void recordInput(long nanos) {
+		input.record(nanos);
+	}
+
+	public static void recordPaint(long nanos) {
+		paint.record(nanos);
+	}
+
+	public static void recordDispatch(long nanos) {
+		dispatch.record(nanos);
+	}
+
+	public static void recordPiece() {
+		pieces.increment();
+	}
+
+	public static void recordClear(int lines) {
+		clears[lines].increment();
+	}
+
+	// what the counters held at the end of an interval, and what changed during it
+	private static final class Interval {
+		final long at = System.nanoTime();
+		final long[][] counts = { tick.snapshot(), input.snapshot(), paint.snapshot(), dispatch.snapshot() };
+		final long pieces = TetrisMetrics.pieces.sum();
+		final long allocated = allocatedBytes();
+		final HistogramSummary[] summaries = new HistogramSummary[counts.length];
+		double piecesPerSecond;
+		double allocatedPerSecond;
+
+		// the first interval has nothing before it
+		Interval() {
+			for (int i = 0; i < counts.length; i++) {
+				summaries[i] = HistogramSummary.of(new long[Histogram.BUCKETS], 0);
+			}
+		}
+
+		Interval(Interval previous) {
+			for (int i = 0; i < counts.length; i++) {
+				long[] interval = new long[Histogram.BUCKETS];
+				long total = 0;
+				for (int j = 0; j < interval.length; j++) {
+					interval[j] = counts[i][j] - previous.counts[i][j];
+					total += counts[i][j];
+				}
+				summaries[i] = HistogramSummary.of(interval, total);
+			}
+			double seconds = (at - previous.at) / 1e9;
+			piecesPerSecond = (pieces - previous.pieces) / seconds;
+			// a thread that ended takes its count with it, so the rate is never taken below nothing
+			allocatedPerSecond = allocated < 0 ? -1 : Math.max(0, allocated - previous.allocated) / seconds;
+		}
+	}
+
+	private void sample() {
+		while (true) {
+			try {
+				Thread.sleep(intervalSeconds * 1000L);
+			} catch (InterruptedException e) {
+				return;
+			}
+			last = new Interval(last);
+		}
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+			if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+				long total = 0;
+				for (long bytes : sun.getThreadAllocatedBytes(sun.getAllThreadIds())) {
+					total += Math.max(0, bytes);
+				}
+				return total;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public HistogramSummary getTickDuration() {
+		return last.summaries[0];
+	}
+
+	@Override
+	public HistogramSummary getInputLatency() {
+		return last.summaries[1];
+	}
+
+	@Override
+	public HistogramSummary getPaintDuration() {
+		return last.summaries[2];
+	}
+
+	@Override
+	public HistogramSummary getObserverDispatch() {
+		return last.summaries[3];
+	}
+
+	@Override
+	public long getPiecesPlaced() {
+		return pieces.sum();
+	}
+
+	@Override
+	public double getPiecesPerSecond() {
+		return last.piecesPerSecond;
+	}
+
+	@Override
+	public long getSingles() {
+		return clears[1].sum();
+	}
+
+	@Override
+	public long getDoubles() {
+		return clears[2].sum();
+	}
+
+	@Override
+	public long getTriples() {
+		return clears[3].sum();
+	}
+
+	@Override
+	public long getTetrises() {
+		return clears[4].sum();
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes();
+	}
+
+	@Override
+	public double getAllocatedBytesPerSecond() {
+		return last.allocatedPerSecond;
+	}
+
+	@Override
+	public int getIntervalSeconds() {
+		return intervalSeconds;
+	}
+
+}
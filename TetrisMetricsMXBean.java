@@ -0,0 +1,37 @@
+
+// what the game measures about itself, registered as tetris:type=Metrics when tetris.metrics is set
+// the durations and rates cover the last sampling interval, the counts everything since the start
+public interface TetrisMetricsMXBean {
+
+	// how long a gravity tick takes, observers included
+	HistogramSummary getTickDuration();
+
+	// from a key press on the event thread until the model has made the move
+	HistogramSummary getInputLatency();
+
+	// how long the game grid takes to paint
+	HistogramSummary getPaintDuration();
+
+	// how long the observers of the model take to hear about one step
+	HistogramSummary getObserverDispatch();
+
+	long getPiecesPlaced();
+
+	double getPiecesPerSecond();
+
+	long getSingles();
+
+	long getDoubles();
+
+	long getTriples();
+
+	long getTetrises();
+
+	// bytes allocated by the threads of the JVM that are alive, -1 when the JVM cannot tell
+	long getAllocatedBytes();
+
+	double getAllocatedBytesPerSecond();
+
+	int getIntervalSeconds();
+
+}
@@ -1,18 +1,19 @@
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.swing.Timer;
-
-public class TetrisModel {
-	
-	private TetrisView view;
-	private TetrisController controller;
+// the game logic has no Swing or AWT dependencies, it only advances when tick() or step() is called
+// the Swing front end drives it with a timer, simulations can call it as fast as they like
+public class TetrisModel implements GameState {
 	
 	private ArrayList<StatsObserver> statsObservers;
 	private ArrayList<BlockObserver> blockObservers;
 	
-	private int[][] grid;
+	private TetrisBoard board;
+	
+	// the size of the board of the next game
+	private int rows = TetrisBoard.ROWS, columns = TetrisBoard.COLUMNS;
 
 	private boolean gameInProgress = false;
 			
@@ -22,47 +23,73 @@ public class TetrisModel {
 	private Block shadowBlock;
 	
 	private boolean alreadyHeld;
-	private int sevenBag;
-	private boolean[] sevenBagUsed;
+	private PieceRandomizer randomizer;
 	
 	private TetrisStats gameStats;
 	
-	private Timer gameTimer;
+	// milliseconds between gravity ticks when the game is played in real time
+	private int gravityDelay;
 	
 	private boolean adaptive;
 	
+	// the adaptive mode goes up a level at each of these scores
+	// without a gravity curve it stops at level 5 and falls a row every so many milliseconds
+	private static final int[] LEVEL_SCORES = { 0, 1000, 2000, 3000, 5000, 8000, 12000, 17000, 23000, 30000 };
+	private static final int[] LEVEL_DELAYS = { 1000, 500, 300, 200, 100 };
+	
+	// when set, the game is played a frame at a time with frame(), the block falls by the gravity
+	// of the curve and waits the lock delay on the ground, otherwise tick() drops it a row each
+	// gravity delay and it locks on the tick after it lands
+	private GravityCurve curve;
+	// rows per frame and the part of a row fallen so far, both in 1/65536 rows
+	private int gravity;
+	private int fallen;
+	private long frames;
+	// the frames the block has waited on the ground, and how often moving it has started the wait again
+	private static final int MAX_LOCK_RESETS = 15;
+	private int lockFrames;
+	private int lockResets;
+	
+	// records every input and tick of the game when set
+	private ReplayRecorder recorder;
+	
+	// collects what the current tick or input changed, observers get it once the step is done
+	private FrameDelta delta = new FrameDelta();
+	
+	// in a versus game, lines cleared send garbage rows to the opponent, and the garbage sent here
+	// waits until a block locks without clearing a line
+	// garbage may be sent from the opponent's thread, so it waits in an atomic counter
+	private static final int[] GARBAGE_SENT = { 0, 0, 1, 2, 4 };
+	private static final long GARBAGE_SEED = 0x6A09E667F3BCC908L;
+	private TetrisModel opponent;
+	private final AtomicInteger incomingGarbage = new AtomicInteger();
+	private SplittableRandom garbageRandom = new SplittableRandom();
+	// the batches of garbage that have risen, each took one number from the random
+	private int garbageBatches;
+	
 	public TetrisModel() {
 		statsObservers = new ArrayList<StatsObserver>();
 		blockObservers = new ArrayList<BlockObserver>();
 	}
 	
 	public void setUpGame(int speed) {
+		// a new seed for every game, each game deals from a seven bag
+		setUpGame(speed, new BagRandomizer(1, System.nanoTime() ^ Thread.currentThread().getId()));
+	}
+	
+	public void setUpGame(int speed, PieceRandomizer randomizer) {
+		delta.reset(null);
 		// clear the board
-		grid = new int[21][10];
+		board = new TetrisBoard(rows, columns);
+		delta.setBoard(board);
 		// game is in progress
 		gameInProgress = true;
-		// create the seven bag
-		// for every cycle of seven blocks, only one of each type can be created
-		sevenBag = 0;
-		sevenBagUsed = new boolean[8];
-		// choose the starting permutation of blocks from the seven bag
+		// deal the current block and the six blocks after it
+		this.randomizer = randomizer;
+		currentBlock = spawn(randomizer.next());
 		nextBlocks = new ArrayList<Block>();
-		for (int i = 1; i <= 7; i++) {
-			// keep randomizing until a block that hasn't been used is found
-			int blockType = 0;
-			do {
-				blockType = (int)(Math.random() * 7) + 1;
-			} while (sevenBagUsed[blockType]);
-			// if this is the first random block, it is the current block
-			if (i == 1)
-				currentBlock = new Block(blockType);
-			else
-				nextBlocks.add(new Block(blockType));
-			sevenBagUsed[blockType] = true;
-		}
-		// reset the seven bag for the next cycle
-		for (int i = 1; i <= 7; i++) {
-			sevenBagUsed[i] = false;
+		for (int i = 2; i <= 7; i++) {
+			nextBlocks.add(spawn(randomizer.next()));
 		}
 		// there is no held block at the start of the game
 		heldBlock = null;
@@ -70,7 +97,6 @@ public class TetrisModel {
 		// the shadow block shows where the current block will land
 		// mimics the current block's type, column position, and orientation
 		shadowBlock = updatedShadowBlock();
-		drawBlock(shadowBlock);
 		// adaptive game mode starts with timer firing every second
 		adaptive = (speed == 1000);
 		// reset the game stats
@@ -78,63 +104,187 @@ public class TetrisModel {
 		if (adaptive) {
 			gameStats.setLevel(1);
 		}
-		notifyStatsObservers();
-		// start the timer with the given speed
-		gameTimer = new Timer(speed, new ActionListener() {
-			public void actionPerformed(ActionEvent e) {
-				updateBlock();
+		delta.setNewGame();
+		// the holes of the garbage follow from the seed, so a versus game can be played again
+		incomingGarbage.set(0);
+		garbageRandom = new SplittableRandom(randomizer.getSeed() ^ GARBAGE_SEED);
+		garbageBatches = 0;
+		// gravity starts at the given speed, or at the first level of the curve in the adaptive mode
+		gravityDelay = speed;
+		gravity = GravityCurve.fromDelay(speed);
+		if (curve != null) {
+			gravity = adaptive ? curve.getGravity(1) : gravity;
+			gravityDelay = GravityCurve.toDelay(gravity);
+		}
+		fallen = 0;
+		frames = 0;
+		lockFrames = lockResets = 0;
+		if (recorder != null) {
+			recorder.start(randomizer.getSeed(), randomizer.getName(), speed, rows, columns, curve);
+		}
+		markAllDirty();
+		publish();
+	}
+	
+	// advances the game by one gravity tick
+	public void tick() {
+		if (!gameInProgress)
+			return;
+		if (recorder != null) {
+			recorder.recordTick();
+		}
+		long start = TetrisMetrics.ENABLED ? System.nanoTime() : 0;
+		delta.reset(null);
+		// the game is as long as its gravity has run, however late the ticks came or long it was paused
+		gameStats.setGameTimeMillis(gameStats.getGameTimeMillis() + gravityDelay);
+		markBlocksDirty();
+		updateBlock();
+		markBlocksDirty();
+		publish();
+		if (TetrisMetrics.ENABLED) {
+			TetrisMetrics.recordTick(System.nanoTime() - start);
+		}
+	}
+	
+	// advances the game by one frame of the 60 Hz clock, in a game with a gravity curve
+	// the block falls by the gravity of the level, however many rows that comes to, and a block
+	// that has waited on the ground for the lock delay locks
+	public void frame() {
+		if (!gameInProgress)
+			return;
+		if (recorder != null) {
+			recorder.recordTick();
+		}
+		long start = TetrisMetrics.ENABLED ? System.nanoTime() : 0;
+		delta.reset(null);
+		frames++;
+		gameStats.setGameTimeMillis(frames * 1000 / GravityCurve.FRAMES_PER_SECOND);
+		markBlocksDirty();
+		if (currentBlock.hitBlock(board)) {
+			currentBlock.setActive(false);
+			if (++lockFrames >= curve.getLockDelay()) {
+				lockBlock();
+				createNewBlock();
+			}
+		}
+		// a block that has just spawned falls in the frame it spawned
+		if (gameInProgress) {
+			fallen += gravity;
+			int rows = fallen >>> 16;
+			fallen &= GravityCurve.ONE_ROW - 1;
+			if (rows > 0) {
+				sink(gravity >= GravityCurve.INSTANT ? board.getRows() : rows);
 			}
-		});
-		gameTimer.start();
-		
+		}
+		// most frames only add to the part of a row fallen so far, and nobody needs to hear about those
+		if (delta.isDropped() || delta.isLocked()) {
+			markBlocksDirty();
+			publish();
+		}
+		if (TetrisMetrics.ENABLED) {
+			TetrisMetrics.recordTick(System.nanoTime() - start);
+		}
+	}
+	
+	// moves the block down by up to the given number of rows at once,
+	// where it lands is found with one query instead of a collision check for every row
+	private void sink(int rows) {
+		int landing = landingRow(currentBlock);
+		int row = Math.min(currentBlock.getRow() + rows, landing);
+		if (row > currentBlock.getRow()) {
+			currentBlock.setRow(row);
+			delta.setDropped();
+		}
+		if (row == landing) {
+			currentBlock.setActive(false);
+			fallen = 0;
+		}
+	}
+	
+	// moving or turning a block that waits on the ground starts its wait again, only so many times
+	private void resetLockDelay() {
+		if (lockFrames > 0 && lockResets < MAX_LOCK_RESETS) {
+			lockFrames = 0;
+			lockResets++;
+		}
+	}
+	
+	// applies one player input
+	public void step(TetrisInput input) {
+		if (!gameInProgress)
+			return;
+		if (recorder != null) {
+			recorder.recordInput(input);
+		}
+		int row = currentBlock.getRow();
+		int col = currentBlock.getCol();
+		// the squares the blocks leave and the squares they move to have both changed
+		delta.reset(input);
+		markBlocksDirty();
+		switch (input) {
+			case MOVE_LEFT:
+				editBlockPosition(row, col - 1);
+				break;
+			case MOVE_RIGHT:
+				editBlockPosition(row, col + 1);
+				break;
+			case SOFT_DROP:
+				editBlockPosition(row + 1, col);
+				break;
+			case ROTATE:
+				rotateBlock();
+				break;
+			case HARD_DROP:
+				hardDrop();
+				break;
+			case HOLD:
+				holdBlock();
+				break;
+		}
+		// at instant gravity a block never hangs in the air, not even straight after it was moved
+		if (curve != null && gravity >= GravityCurve.INSTANT && gameInProgress) {
+			sink(board.getRows());
+		}
+		markBlocksDirty();
+		// observers hear about each input once, however many parts of the game it changed
+		publish();
 	}
 	
 	public void updateBlock() {
-		// drop the block one row at a time, then create a new one
+		// drop the block one row at a time, then lock it in place and create a new one
 		if (currentBlock.isActive()) {
 			dropBlock();
 		} else {
+			lockBlock();
 			createNewBlock();
 		}
-		notifyBlockObservers();
 	}
 	
 	public void gameOver() {
 		gameStats.setMessage("GAME OVER!");
 		gameInProgress = false;
-		gameTimer.stop();
-		gameTimer = null;
-		notifyStatsObservers();
+		if (recorder != null) {
+			recorder.close();
+			recorder = null;
+		}
+		delta.setGameOver();
 	}
 	
 	public boolean validPosition(Block b) {
 		// check for out of bounds
-		if (b.getBottomRow() > 20 || b.getLeftColumn() < 0 || b.getRightColumn() > 9) {
+		int lastRow = board.getRows() - 1;
+		if (b.getBottomRow() > lastRow || b.getLeftColumn() < 0 || b.getRightColumn() >= board.getColumns()) {
 			return false;
 		}
 		
-		// create a temporary grid without the current block, then add in the current block
-		int[][] tempGrid = new int[21][10];
-		for (int i = 0; i <= 20; i++) {
-			for (int j = 0; j < 10; j++) {
-				// if the current block occupies this square, skip
-				if (b.getSquareAt(b.getRow() - i, b.getCol() - j) > 0) 
-					continue;
-				tempGrid[i][j] = grid[i][j];
-			}
-		}
-		
-		// check every square that the new block occupies and see if it conflicts with the temp grid
+		// the current block is never part of the board, so every row of the new block
+		// only has to be checked against the masks of the locked squares
 		for (int i = 0; i < b.getDimensions().length; i++) {
-			for (int j = 0; j < b.getDimensions()[0].length; j++) {
-				if (b.getSquareAt(i, j) > 0) {
-					if (i + b.getRow() > 20 || j + b.getCol() > 9) {
-						return false;
-					}
-					if (tempGrid[i + b.getRow()][j + b.getCol()] > 0) {
-						return false;
-					}
-				}
+			int mask = b.getRowMask(i);
+			if (mask == 0) continue;
+			int r = i + b.getRow();
+			if (r < 0 || r > lastRow || board.collides(r, b.getCol(), mask)) {
+				return false;
 			}
 		}
 		
@@ -142,45 +292,39 @@ public class TetrisModel {
 	}
 	
 	public void editBlockPosition(int newRow, int newCol) {
-		eraseBlock(currentBlock);
 		// simulate the move and see if it is legal or not
 		if (validPosition(new Block(currentBlock.getBlockType(), 
-				newRow, newCol, currentBlock.getDimensions()))) {
+				newRow, newCol, currentBlock.getOrientation()))) {
 			currentBlock.setRow(newRow);
 			currentBlock.setCol(newCol);
-			eraseBlock(shadowBlock);
 			shadowBlock = updatedShadowBlock();
-			drawBlock(shadowBlock);
+			delta.setMoved();
+			resetLockDelay();
 		}
 		// the current movement can cause the block to become active again
-		if (!currentBlock.hitBlock(grid)) {
+		if (!currentBlock.hitBlock(board)) {
 			currentBlock.setActive(true);
 		}
-
-		drawBlock(currentBlock);
-		notifyBlockObservers();
 	}
 	
 	public void clearLines() {
-		// calculate how many lines were cleared
-		int currLinesCleared = 0;
-		for (int i = 1; i <= 20; i++) {
-			int count = 0;
-			for (int j = 0; j < 10; j++) {
-				if (grid[i][j] > 0) {
-					count++;
-				}
-			}
-			// if every square in this entire row is filled, clear the line
-			if (count == 10) {
-				currLinesCleared++;
-				shiftRowsDown(i-1);
-			}
+		// every full row below the hidden top row is cleared at once
+		// only the rows of the block just locked can have filled up, so on a board taller than
+		// the 64 rows one mask covers, the rows are looked at from the block down
+		int first = Math.max(1, Math.min(currentBlock.getRow(), board.getRows() - 64));
+		long full = board.getFullRows(first);
+		int currLinesCleared = Long.bitCount(full);
+		int lowestCleared = first + 63 - Long.numberOfLeadingZeros(full);
+		board.removeRows(first, full);
+		// every row above the lowest cleared line moved down
+		if (currLinesCleared > 0) {
+			delta.markRows(0, lowestCleared);
 		}
 		// update the game statistics
 		gameStats.setLinesCleared(gameStats.getLinesCleared() + currLinesCleared);
 		
 		int previousScore = gameStats.getScore();
+		int previousLevel = gameStats.getLevel();
 		switch (currLinesCleared) {
 			case 1: 
 				gameStats.setScore(gameStats.getScore() + 100);
@@ -204,92 +348,198 @@ public class TetrisModel {
 		
 		// update the level and speed for the adaptive game mode
 		if (adaptive) {
-			if (previousScore < 1000 && gameStats.getScore() >= 1000) {
-				gameTimer.setDelay(500);
-				gameStats.setLevel(2);
-				gameStats.setMessage("LEVEL UP!");
+			int lastLevel = curve != null ? Math.min(curve.getLevels(), LEVEL_SCORES.length) : LEVEL_DELAYS.length;
+			int level = previousLevel;
+			while (level < lastLevel && gameStats.getScore() >= LEVEL_SCORES[level]) {
+				level++;
 			}
-			if (previousScore < 2000 && gameStats.getScore() >= 2000) {
-				gameTimer.setDelay(300);
-				gameStats.setLevel(3);
-				gameStats.setMessage("LEVEL UP!");
-			} 
-			if (previousScore < 3000 && gameStats.getScore() >= 3000) {
-				gameTimer.setDelay(200);
-				gameStats.setLevel(4);
-				gameStats.setMessage("LEVEL UP!");
-			}
-			if (previousScore < 5000 && gameStats.getScore() >= 5000) {
-				gameTimer.setDelay(100);
-				gameStats.setLevel(5);
+			if (level != previousLevel) {
+				if (curve != null) {
+					gravity = curve.getGravity(level);
+					gravityDelay = GravityCurve.toDelay(gravity);
+				} else {
+					gravityDelay = LEVEL_DELAYS[level - 1];
+					gravity = GravityCurve.fromDelay(gravityDelay);
+				}
+				gameStats.setLevel(level);
 				gameStats.setMessage("LEVEL UP!");
 			}
 		}
 		
-		notifyStatsObservers();
+		if (currLinesCleared > 0) {
+			delta.addLines(currLinesCleared, gameStats.getScore() - previousScore);
+			if (TetrisMetrics.ENABLED) {
+				TetrisMetrics.recordClear(currLinesCleared);
+			}
+		}
+		if (gameStats.getLevel() != previousLevel) {
+			delta.setLevelUp();
+		}
 	}
 	
 	public void shiftRowsDown(int lastRow) {
 		// when lines are cleared, all the rows above move down
-		for (int i = lastRow; i >= 1; i--) {
-			for (int j = 0; j < 10; j++) {
-				// copy from the square directly above the current one
-				grid[i+1][j] = grid[i][j];
-			}
-		}
-		notifyBlockObservers();
+		board.removeRow(lastRow + 1);
 	}
 	
 	public boolean dropBlock() {
 		// check if the block can be dropped
-		if (currentBlock.hitBlock(grid)) {
+		if (currentBlock.hitBlock(board)) {
 			currentBlock.setActive(false);
 			return false;
 		}
 		
-		// redraw the block one row lower than it was before
-		eraseBlock(currentBlock);
+		// move the block one row lower than it was before
 		currentBlock.setRow(currentBlock.getRow() + 1);
-		drawBlock(currentBlock);
+		delta.setDropped();
 		
 		// if the block has hit another block or the bottom of the grid, deactivate it
-		// also check for completed lines
-		if (currentBlock.hitBlock(grid)) {
+		// it is locked in place on the next update unless it is moved off the ground first
+		if (currentBlock.hitBlock(board)) {
 			currentBlock.setActive(false);
-			clearLines();
 		}
 		return true;
 	}
 	
 	public void hardDrop() {
-		eraseBlock(currentBlock);
-		while (!currentBlock.hitBlock(grid)) {
-			currentBlock.setRow(currentBlock.getRow() + 1);
-		}
-		drawBlock(currentBlock);
+		currentBlock.setRow(landingRow(currentBlock));
 		currentBlock.setActive(false);
-		clearLines();
+		delta.setHardDropped();
+		lockBlock();
 		createNewBlock();
 	}
 	
+	// copies the current block onto the board, then checks for completed lines
+	public void lockBlock() {
+		drawBlock(currentBlock);
+		delta.setLocked();
+		gameStats.setPiecesPlaced(gameStats.getPiecesPlaced() + 1);
+		if (TetrisMetrics.ENABLED) {
+			TetrisMetrics.recordPiece();
+		}
+		int linesBefore = gameStats.getLinesCleared();
+		clearLines();
+		exchangeGarbage(gameStats.getLinesCleared() - linesBefore);
+	}
+	
+	// cleared lines first cancel the garbage waiting here and send the rest to the opponent,
+	// a block that clears nothing lets the waiting garbage rise
+	private void exchangeGarbage(int lines) {
+		// a plain read first, so a game without an opponent never pays for an atomic update
+		if (opponent == null && incomingGarbage.get() == 0)
+			return;
+		if (lines > 0) {
+			int attack = GARBAGE_SENT[Math.min(lines, 4)];
+			int waiting = incomingGarbage.getAndUpdate(g -> Math.max(0, g - attack));
+			int sent = attack - Math.min(attack, waiting);
+			if (sent > 0 && opponent != null) {
+				opponent.receiveGarbage(sent);
+				delta.addGarbageSent(sent);
+			}
+			return;
+		}
+		if (incomingGarbage.get() == 0)
+			return;
+		int garbage = incomingGarbage.getAndSet(0);
+		// one batch of garbage shares a hole, so it can be cleared by a single well
+		long[] masks = new long[Math.min(garbage, board.getRows())];
+		int hole = garbageRandom.nextInt(board.getColumns());
+		garbageBatches++;
+		Arrays.fill(masks, board.getFullRow() & ~(1L << hole));
+		boolean fits = board.pushGarbage(masks);
+		delta.markRows(0, board.getRows() - 1);
+		delta.addGarbageReceived(masks.length);
+		if (!fits) {
+			// the stack was pushed out of the top of the board
+			gameOver();
+		}
+	}
+	
+	// a copy of the whole game that stays as it is while the game goes on, for undo and rewind
+	// the rows that did not change since the last save are shared with the snapshots before it
+	public Snapshot save() {
+		return new Snapshot(this);
+	}
+
+	// puts the game back as it was when the snapshot was saved
+	// a restored game can no longer be played back from its inputs, so its recording stops
+	public void restore(Snapshot snapshot) {
+		if (recorder != null) {
+			recorder.close();
+			recorder = null;
+		}
+		delta.reset(null);
+		if (board.getRows() != snapshot.rows.length || board.getColumns() != snapshot.columns) {
+			board = new TetrisBoard(snapshot.rows.length, snapshot.columns);
+			delta.setBoard(board);
+			delta.reset(null);
+		}
+		// only the rows that differ from the snapshot are written
+		board.restoreRows(snapshot.rows);
+		gameInProgress = snapshot.inProgress;
+		currentBlock = new Block(snapshot.currentType, snapshot.currentRow, snapshot.currentCol,
+				snapshot.currentOrientation);
+		currentBlock.setActive(snapshot.currentActive);
+		nextBlocks = new ArrayList<Block>();
+		for (byte type : snapshot.nextTypes) {
+			nextBlocks.add(spawn(type));
+		}
+		heldBlock = snapshot.heldType == 0 ? null : spawn(snapshot.heldType);
+		alreadyHeld = snapshot.alreadyHeld;
+		shadowBlock = gameInProgress ? updatedShadowBlock() : null;
+		// the randomizer and the garbage holes are made again from the seed, then moved on as far as they had come
+		randomizer = PieceRandomizer.resume(snapshot.randomizer, snapshot.seed, snapshot.dealt);
+		garbageRandom = new SplittableRandom(snapshot.seed ^ GARBAGE_SEED);
+		for (int i = 0; i < snapshot.garbageBatches; i++) {
+			garbageRandom.nextInt(snapshot.columns);
+		}
+		garbageBatches = snapshot.garbageBatches;
+		incomingGarbage.set(snapshot.incomingGarbage);
+		gameStats = new TetrisStats(snapshot.score, snapshot.linesCleared, snapshot.level, snapshot.message);
+		gameStats.setPiecesPlaced(snapshot.piecesPlaced);
+		gameStats.setGameTimeMillis(snapshot.gameTimeMillis);
+		gravityDelay = snapshot.gravityDelay;
+		adaptive = snapshot.adaptive;
+		gravity = snapshot.gravity;
+		fallen = snapshot.fallen;
+		frames = snapshot.frames;
+		lockFrames = snapshot.lockFrames;
+		lockResets = snapshot.lockResets;
+		delta.setRestored();
+		markAllDirty();
+		publish();
+	}
+
+	// the opponent of a versus game, garbage is sent to it when lines are cleared
+	public void setOpponent(TetrisModel opponent) {
+		this.opponent = opponent;
+	}
+	
+	// adds garbage rows that rise the next time a block locks without clearing a line, from any thread
+	public void receiveGarbage(int lines) {
+		incomingGarbage.addAndGet(lines);
+	}
+	
+	public int getIncomingGarbage() {
+		return incomingGarbage.get();
+	}
+	
 	public void rotateBlock() {
 		// check if the block can rotate
-		if (!currentBlock.canRotate(grid)) 
+		if (!currentBlock.canRotate(board)) 
 			return;
 		
-		eraseBlock(currentBlock);
 		currentBlock.rotate();
+		delta.setRotated();
+		resetLockDelay();
 		
 		// update the shadow block
-		eraseBlock(shadowBlock);
 		shadowBlock = updatedShadowBlock();
-		drawBlock(shadowBlock);
 		
 		// the rotation can cause the block to become active again
-		if (!currentBlock.hitBlock(grid)) {
+		if (!currentBlock.hitBlock(board)) {
 			currentBlock.setActive(true);
 		}
-		drawBlock(currentBlock);
 	}
 	
 	public void holdBlock() {
@@ -303,108 +553,137 @@ public class TetrisModel {
 		
 		// if there is no held block, set the held block to the current block
 		// otherwise, use the previously held block and save the current block as the new held block 
-		eraseBlock(shadowBlock);
 		if (heldBlock == null) {
-			heldBlock = new Block(currentBlock.getBlockType());
-			eraseBlock(currentBlock);
+			heldBlock = spawn(currentBlock.getBlockType());
 			createNewBlock();
 		} else {
 			// if the player has not already held the block, they switch it with the current block
-			Block tempBlock = new Block(heldBlock.getBlockType());
-			heldBlock = new Block(currentBlock.getBlockType());
-			eraseBlock(currentBlock);
+			Block tempBlock = spawn(heldBlock.getBlockType());
+			heldBlock = spawn(currentBlock.getBlockType());
 			currentBlock = tempBlock;
 			alreadyHeld = true;
+			fallen = 0;
+			lockFrames = lockResets = 0;
 		}
 		shadowBlock = updatedShadowBlock();
-		drawBlock(shadowBlock);
-		
-		notifyBlockObservers();
+		delta.setHeld();
+		delta.markHold();
 	}
 	
 	public void createNewBlock() {
+		// garbage can end the game as the block locks, then no new block comes
+		if (!gameInProgress)
+			return;
 		// the current block is the first block in the nextBlocks list
 		currentBlock = nextBlocks.get(0);
 		currentBlock.setActive(true);
 		nextBlocks.remove(0);
 		alreadyHeld = false;
+		fallen = 0;
+		lockFrames = lockResets = 0;
 		
-		// keep taking a random block until you find an unused one
-		int blockType = 0;
-		do {
-			blockType = (int)(Math.random() * 7) + 1;
-		} while (sevenBagUsed[blockType]);
-		nextBlocks.add(new Block(blockType));
-		sevenBagUsed[blockType] = true;
-		sevenBag++;
-		
-		// if the cycle is complete, create a new cycle
-		if (sevenBag == 7) {
-			sevenBag = 0;
-			for (int i = 1; i <= 7; i++) {
-				sevenBagUsed[i] = false;
-			}
-		}
+		// deal a new block to the end of the list
+		nextBlocks.add(spawn(randomizer.next()));
+		delta.markNext();
+		delta.setSpawned();
 		
 		// check for game over
-		if (currentBlock.hitBlock(grid)) {
+		if (currentBlock.hitBlock(board)) {
 			// if the block occupies the first row, shift it up
 			if (currentBlock.getBottomRow() == 1) {
 				currentBlock.setRow(currentBlock.getRow() - 1);
 			}
 			// if it is not directly stacked on another block after the shift, move it back up one row
-			if (!currentBlock.hitBlock(grid)) {
+			if (!currentBlock.hitBlock(board)) {
 				currentBlock.setRow(currentBlock.getRow() + 1);
 			}
-			drawBlock(currentBlock);
+			// the block is left where it spawned and the old shadow is no longer needed
+			shadowBlock = null;
 			gameOver();
 		} else {
 			shadowBlock = updatedShadowBlock();
-			drawBlock(shadowBlock);
 		}
 	}
 	
+	// a new block at the top of the board in the middle column
+	private Block spawn(int blockType) {
+		Block b = new Block(blockType);
+		b.setCol(Block.spawnColumn(board.getColumns()));
+		return b;
+	}
+	
 	public Block updatedShadowBlock() {
 		// same block dimensions, same column, same orientation
 		Block shadow = new Block(currentBlock.getBlockType(), currentBlock.getOrientation(), true);
-		shadow.setRow(currentBlock.getRow());
+		shadow.setRow(landingRow(currentBlock));
 		shadow.setCol(currentBlock.getCol());
-		// keep moving it down until it reaches the bottom or hits another block
-		while (!shadow.hitBlock(grid)) {
-			shadow.setRow(shadow.getRow() + 1);
-		}
 		return shadow;
 	}
 	
-	public void eraseBlock(Block b) {
-		int r1 = b.getRow();
-		int c1 = b.getCol();
-		int r2 = r1 + b.getDimensions().length;
-		int c2 = c1 + b.getDimensions()[0].length;
-		// clear the squares the block originally occupied
-		for (int i = r1; i < r2; i++) {
-			for (int j = c1; j < c2; j++) {
-				// do not fill if the square is out of bounds or not occupied
-				if (i < 0 || i > 20 || j < 0 || j >= 10) continue;
-				if (b.getDimensions()[i-r1][j-c1] != 0)
-					grid[i][j] = 0;
-			}
+	// finds the row the block would reach if it was dropped straight down
+	public int landingRow(Block b) {
+		// the column tops answer right away unless the block is tucked under an overhang
+		int landing = board.getLandingRow(b.getShape(), b.getRow(), b.getCol());
+		if (landing >= 0) {
+			return landing;
+		}
+		// otherwise keep moving it down until it reaches the bottom or hits another block
+		int start = b.getRow();
+		while (!b.hitBlock(board)) {
+			b.setRow(b.getRow() + 1);
 		}
+		landing = b.getRow();
+		b.setRow(start);
+		return landing;
 	}
 	
+	// only locked blocks are drawn onto the board, the current block and the shadow block
+	// are kept apart and layered on top when the board is read
 	public void drawBlock(Block b) {
-		int r1 = b.getRow();
-		int c1 = b.getCol();
-		int r2 = r1 + b.getDimensions().length;
-		int c2 = c1 + b.getDimensions()[0].length;
+		Block.Shape shape = b.getShape();
 		// fill in the squares that the block occupies
-		for (int i = r1; i < r2; i++) {
-			for (int j = c1; j < c2; j++) {
-				// do not fill if the square is out of bounds or not occupied
-				if (i < 0 || i > 20 || j < 0 || j >= 10 || 
-						b.getDimensions()[i-r1][j-c1] == 0) continue;
-				grid[i][j] = b.getDimensions()[i-r1][j-c1];
-			}
+		for (int k = 0; k < shape.cellRows.length; k++) {
+			int i = b.getRow() + shape.cellRows[k];
+			int j = b.getCol() + shape.cellCols[k];
+			// do not fill if the square is out of bounds
+			if (i < 0 || i >= board.getRows() || j < 0 || j >= board.getColumns()) continue;
+			board.set(i, j, b.getBlockType());
+		}
+	}
+	
+	// marks the squares of the current block and the shadow block as changed
+	private void markBlocksDirty() {
+		markDirty(currentBlock);
+		markDirty(shadowBlock);
+	}
+	
+	private void markDirty(Block b) {
+		if (b == null)
+			return;
+		Block.Shape shape = b.getShape();
+		for (int k = 0; k < shape.cellRows.length; k++) {
+			int i = b.getRow() + shape.cellRows[k];
+			int j = b.getCol() + shape.cellCols[k];
+			if (i < 0 || i >= board.getRows() || j < 0 || j >= board.getColumns()) continue;
+			delta.markCell(i, j);
+		}
+	}
+	
+	private void markAllDirty() {
+		delta.markRows(0, board.getRows() - 1);
+		delta.markNext();
+		delta.markHold();
+	}
+	
+	// hands the finished delta to the observers, stats observers only hear about it when the stats changed
+	private void publish() {
+		long start = TetrisMetrics.ENABLED ? System.nanoTime() : 0;
+		if (delta.isStatsChanged()) {
+			notifyStatsObservers();
+		}
+		notifyBlockObservers();
+		if (TetrisMetrics.ENABLED) {
+			TetrisMetrics.recordDispatch(System.nanoTime() - start);
 		}
 	}
 	
@@ -418,28 +697,78 @@ public class TetrisModel {
 
 	public void notifyStatsObservers() {
 		for (StatsObserver observer : statsObservers) {
-			observer.statsChanged();
+			observer.statsChanged(delta);
 		}
 	}
 	
 	public void notifyBlockObservers() {
 		for (BlockObserver observer : blockObservers) {
-			observer.blocksChanged();
+			observer.blocksChanged(delta);
 		}
 	}
 	
     public int blockAt(int row, int col) {
-        return grid[row][col];
+    	// the current block is drawn over the board, and the shadow block under both
+    	if (occupies(currentBlock, row, col)) {
+    		return currentBlock.getBlockType();
+    	}
+    	int locked = board.get(row, col);
+    	if (locked == 0 && occupies(shadowBlock, row, col)) {
+    		return Block.SHADOW_BLOCK;
+    	}
+        return locked;
+    }
+    
+    private boolean occupies(Block b, int row, int col) {
+    	return b != null && b.getSquareAt(row - b.getRow(), col - b.getCol()) != 0;
     }
 
     // getters and setters
 
 	public int[][] getGrid() {
+		int[][] grid = new int[board.getRows()][board.getColumns()];
+		for (int i = 0; i < grid.length; i++) {
+			for (int j = 0; j < grid[i].length; j++) {
+				grid[i][j] = blockAt(i, j);
+			}
+		}
 		return grid;
 	}
 
+	// the board takes the size of the grid
 	public void setGrid(int[][] grid) {
-		this.grid = grid;
+		board = new TetrisBoard(grid.length, grid[0].length);
+		delta.setBoard(board);
+		delta.reset(null);
+		for (int i = 0; i < grid.length; i++) {
+			for (int j = 0; j < grid[0].length; j++) {
+				// the current block and shadow block are not part of the board
+				if (grid[i][j] > 0)
+					board.set(i, j, grid[i][j]);
+			}
+		}
+		markAllDirty();
+		notifyBlockObservers();
+	}
+	
+	public TetrisBoard getBoard() {
+		return board;
+	}
+
+	// the size of the board from the next game on
+	public void setBoardSize(int rows, int columns) {
+		// checked now, rather than when the next game is set up
+		TetrisBoard.checkSize(rows, columns);
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	public int getRows() {
+		return board != null ? board.getRows() : rows;
+	}
+
+	public int getColumns() {
+		return board != null ? board.getColumns() : columns;
 	}
 
 	public boolean isGameInProgress() {
@@ -466,6 +795,10 @@ public class TetrisModel {
 		this.nextBlocks = nextBlocks;
 	}
 
+	public boolean isAlreadyHeld() {
+		return alreadyHeld;
+	}
+
 	public Block getHeldBlock() {
 		return heldBlock;
 	}
@@ -474,6 +807,45 @@ public class TetrisModel {
 		this.heldBlock = heldBlock;
 	}
 
+	public int getNextCount() {
+		return nextBlocks.size();
+	}
+
+	public int getNextType(int index) {
+		return nextBlocks.get(index).getBlockType();
+	}
+
+	public int getHeldType() {
+		return heldBlock == null ? 0 : heldBlock.getBlockType();
+	}
+
+	public int getGravityDelay() {
+		return gravityDelay;
+	}
+
+	// rows per frame in 1/65536 rows
+	public int getGravity() {
+		return gravity;
+	}
+
+	// the curve has to be set before the game is set up, null plays the game in gravity ticks
+	public void setGravityCurve(GravityCurve curve) {
+		this.curve = curve;
+	}
+
+	public GravityCurve getGravityCurve() {
+		return curve;
+	}
+
+	// the recorder has to be set before the game is set up
+	public void setRecorder(ReplayRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	public PieceRandomizer getRandomizer() {
+		return randomizer;
+	}
+
 	public TetrisStats getGameStats() {
 		return gameStats;
 	}
@@ -482,4 +854,77 @@ public class TetrisModel {
 		this.gameStats = gameStats;
 	}
 
+	// a saved game, never changed once it is made, so it can be kept for as long as undo needs it
+	// unlike a GameSnapshot, which is the picture of a frame for the view, it holds everything needed to go on playing
+	public static final class Snapshot {
+		final TetrisBoard.Row[] rows;
+		final int columns;
+		final boolean inProgress;
+		final byte currentType, currentOrientation;
+		final short currentRow, currentCol;
+		final boolean currentActive;
+		final byte[] nextTypes;
+		final byte heldType;
+		final boolean alreadyHeld;
+		final String randomizer;
+		final long seed, dealt;
+		final int garbageBatches, incomingGarbage;
+		final int score, linesCleared, level, piecesPlaced;
+		final String message;
+		final long gameTimeMillis;
+		final int gravityDelay;
+		final boolean adaptive;
+		final int gravity, fallen, lockFrames, lockResets;
+		final long frames;
+
+		Snapshot(TetrisModel model) {
+			rows = model.board.saveRows();
+			columns = model.board.getColumns();
+			inProgress = model.gameInProgress;
+			Block current = model.currentBlock;
+			currentType = (byte) current.getBlockType();
+			currentOrientation = (byte) current.getOrientation();
+			currentRow = (short) current.getRow();
+			currentCol = (short) current.getCol();
+			currentActive = current.isActive();
+			nextTypes = new byte[model.nextBlocks.size()];
+			for (int i = 0; i < nextTypes.length; i++) {
+				nextTypes[i] = (byte) model.nextBlocks.get(i).getBlockType();
+			}
+			heldType = (byte) model.getHeldType();
+			alreadyHeld = model.alreadyHeld;
+			randomizer = model.randomizer.getName();
+			seed = model.randomizer.getSeed();
+			dealt = model.randomizer.getDealt();
+			garbageBatches = model.garbageBatches;
+			incomingGarbage = model.incomingGarbage.get();
+			TetrisStats stats = model.gameStats;
+			score = stats.getScore();
+			linesCleared = stats.getLinesCleared();
+			level = stats.getLevel();
+			piecesPlaced = stats.getPiecesPlaced();
+			message = stats.getMessage();
+			gameTimeMillis = stats.getGameTimeMillis();
+			gravityDelay = model.gravityDelay;
+			adaptive = model.adaptive;
+			gravity = model.gravity;
+			fallen = model.fallen;
+			frames = model.frames;
+			lockFrames = model.lockFrames;
+			lockResets = model.lockResets;
+		}
+
+		public int getScore() {
+			return score;
+		}
+
+		public int getPiecesPlaced() {
+			return piecesPlaced;
+		}
+
+		public boolean isGameInProgress() {
+			return inProgress;
+		}
+	}
+
 }
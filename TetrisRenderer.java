@@ -0,0 +1,224 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// draws the board, the next blocks and the held block of a model
+// kept apart from TetrisView so the same drawing can be done into an image without a window
+public class TetrisRenderer {
+
+	private TetrisModel model;
+	private Font font;
+	private boolean showingShadow = true;
+	
+	// squares are copied from the atlas of the skin, or filled with their color when there is no skin
+	private TileAtlas.Skin skin;
+	private TileAtlas atlas;
+	
+	// the labels beside the grid, drawn once and copied onto the panel
+	private BufferedImage chrome;
+	private GraphicsConfiguration chromeConfig;
+
+	public TetrisRenderer(TetrisModel model, Font font) {
+		this.model = model;
+		this.font = font;
+	}
+
+	// size of a square in pixels, and the parts of the panel beside the grid
+	// squares are drawn smaller when a board is too big to fit the space of the standard one
+	static final int CELL = 30;
+	static final Dimension GRID_AREA = new Dimension(TetrisBoard.COLUMNS * CELL, (TetrisBoard.ROWS - 1) * CELL);
+	static final Rectangle NEXT_AREA = new Rectangle(300, 0, 160, 660);
+	static final Rectangle HOLD_AREA = new Rectangle(460, 0, 150, 180);
+	static final Rectangle SIDE_AREA = NEXT_AREA.union(HOLD_AREA);
+	
+	// the size of a square on a board of the given size, the hidden top row is not drawn
+	static int cellSize(int rows, int columns) {
+		return Math.max(1, Math.min(CELL, Math.min(GRID_AREA.width / columns, GRID_AREA.height / (rows - 1))));
+	}
+	
+	// the labels sit in a strip along the top of the side area
+	private static final int CHROME_HEIGHT = 40;
+
+	public void paint(Graphics g) {
+		paint(g, model);
+	}
+
+	// draws any state of the game, the live model or a snapshot made on another thread
+	public void paint(Graphics g, GameState state) {
+		// only the part of the panel that was asked to be repainted is drawn
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, SIDE_AREA.x + SIDE_AREA.width, SIDE_AREA.height);
+		}
+		GraphicsConfiguration config = g instanceof Graphics2D ? ((Graphics2D) g).getDeviceConfiguration() : null;
+		int columns = state.getColumns();
+		int cell = cellSize(state.getRows(), columns);
+		if (skin != null && (atlas == null || !atlas.isCompatible(config, cell, columns))) {
+			atlas = createAtlas(config, skin, cell, columns);
+		}
+		
+        // grid, only the rows and columns inside the clip
+		int firstRow = Math.max(1, clip.y / cell + 1);
+		int lastRow = Math.min(state.getRows() - 1, (clip.y + clip.height - 1) / cell + 1);
+		int firstCol = Math.max(0, clip.x / cell);
+		int lastCol = Math.min(columns - 1, (clip.x + clip.width - 1) / cell);
+		// squares next to each other of the same type are drawn as one run,
+		// and the color is only set when it changes
+		Color current = null;
+        for (int row = firstRow; row <= lastRow; row++) {
+        	int col = firstCol;
+            while (col <= lastCol) {
+            	int type = visibleType(state.blockAt(row, col));
+            	int start = col;
+            	col++;
+            	while (col <= lastCol && visibleType(state.blockAt(row, col)) == type) {
+            		col++;
+            	}
+            	if (atlas != null) {
+            		atlas.draw(g, type, col - start, start*cell, (row-1)*cell);
+            		continue;
+            	}
+            	Color c = convertBlockToColor(type);
+            	if (c != current) {
+            		g.setColor(c);
+            		current = c;
+            	}
+            	g.fillRect(start*cell, (row-1)*cell, (col-start)*cell, cell);
+            }
+        }
+        
+        if (!clip.intersects(SIDE_AREA))
+        	return;
+        // the previews change shape from block to block, so the background is cleared
+        // and the labels are copied over it before they are drawn
+		Rectangle side = clip.intersection(SIDE_AREA);
+		g.setColor(Color.WHITE);
+		g.fillRect(side.x, side.y, side.width, side.height);
+		if (side.y < CHROME_HEIGHT) {
+			if (chrome == null || chromeConfig != config) {
+				chrome = createChrome(config);
+				chromeConfig = config;
+			}
+			g.drawImage(chrome, SIDE_AREA.x, SIDE_AREA.y, null);
+		}
+        
+        // next blocks
+        if (clip.intersects(NEXT_AREA)) {
+	        int currentY = 60;
+			for (int n = 0; n < state.getNextCount(); n++) {
+				int type = state.getNextType(n);
+				int[][] next = Block.getShape(type, 0).dimensions;
+				if (type == Block.I_BLOCK)
+					currentY -= 30;
+				for (int i = 0; i < next.length; i++) {
+					for (int j = 0; j < next[0].length; j++) {
+						drawSquare(g, next[i][j], 330 + 30*j, currentY + 30*i);
+					}
+				}
+				currentY += 30 * (next.length);
+				if (type == Block.O_BLOCK)
+					currentY += 30;
+				if (type == Block.I_BLOCK)
+					currentY -= 30;
+			}
+        }
+		
+		// held block
+		if (clip.intersects(HOLD_AREA) && state.getHeldType() != 0) {
+    		int[][] held = Block.getShape(state.getHeldType(), 0).dimensions;
+    		int currentY = 60;
+    		if (state.getHeldType() == Block.I_BLOCK)
+    			currentY -= 30;
+    		for (int i = 0; i < held.length; i++) {
+    			for (int j = 0; j < held[0].length; j++) {
+    				drawSquare(g, held[i][j], 470 + 30*j, currentY + 30*i);
+    			}
+    		}
+		}
+	}
+	
+	// draws a square of a preview, the empty squares of the preview are left out
+	private void drawSquare(Graphics g, int blockType, int x, int y) {
+		if (convertBlockToColor(blockType) == Color.BLACK)
+			return;
+		// the tiles of a board with smaller squares do not fit the previews
+		if (atlas != null && atlas.getSize() == CELL) {
+			atlas.draw(g, blockType, 1, x, y);
+		} else {
+			g.setColor(convertBlockToColor(blockType));
+			g.fillRect(x, y, CELL, CELL);
+		}
+	}
+	
+	// a hidden shadow block is drawn as an empty square
+	private int visibleType(int blockType) {
+		return blockType == Block.SHADOW_BLOCK && !showingShadow ? 0 : blockType;
+	}
+	
+	private TileAtlas createAtlas(GraphicsConfiguration config, TileAtlas.Skin skin, int cell, int columns) {
+		Color[] colors = new Color[Block.GARBAGE_BLOCK + 1];
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = convertBlockToColor(i);
+		}
+		return new TileAtlas(config, skin, colors, Color.GRAY, cell, columns);
+	}
+	
+	private BufferedImage createChrome(GraphicsConfiguration config) {
+		BufferedImage image = config != null
+				? config.createCompatibleImage(SIDE_AREA.width, CHROME_HEIGHT, Transparency.OPAQUE)
+				: new BufferedImage(SIDE_AREA.width, CHROME_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, SIDE_AREA.width, CHROME_HEIGHT);
+		g.setColor(Color.BLACK);
+		g.setFont(font);
+		g.drawString("NEXT", 330 - SIDE_AREA.x, 30);
+		g.drawString("HOLD", 470 - SIDE_AREA.x, 30);
+		g.dispose();
+		return image;
+	}
+
+    public Color convertBlockToColor(int blockType) {
+    	switch (blockType) {
+    		case Block.SHADOW_BLOCK:
+    			if (showingShadow)
+    				return Color.GRAY;
+    			else
+    				return Color.BLACK;
+			case Block.I_BLOCK:
+				return Color.CYAN;
+			case Block.J_BLOCK:
+				return Color.BLUE;
+			case Block.L_BLOCK:
+				return Color.ORANGE;
+			case Block.O_BLOCK:
+				return Color.YELLOW;
+			case Block.S_BLOCK:
+				return Color.GREEN;
+			case Block.T_BLOCK:
+				return Color.MAGENTA;
+			case Block.Z_BLOCK:
+				return Color.RED;
+			case Block.GARBAGE_BLOCK:
+				return Color.DARK_GRAY;
+			default:
+				return Color.BLACK;
+    	}
+    }
+
+    public void setShowingShadow(boolean showingShadow) {
+    	this.showingShadow = showingShadow;
+    }
+
+    // null draws every square with fillRect
+    public void setSkin(TileAtlas.Skin skin) {
+    	this.skin = skin;
+    	atlas = null;
+    }
+
+    // called when the panel is shown in a new window, the chrome and tiles are made again on the next paint
+    public void invalidateCache() {
+    	atlas = null;
+    	chrome = null;
+    }
+
+}
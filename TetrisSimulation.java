@@ -0,0 +1,130 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// runs a model on a thread of its own with a fixed timestep, so a slow paint cannot hold up gravity or input
+// the model is played a frame at a time, 60 a second, so it needs a gravity curve
+// the event thread hands inputs over through a lock-free queue, and after every step the simulation
+// publishes an immutable snapshot that the view paints from
+public class TetrisSimulation implements Runnable, BlockObserver {
+
+	private final TetrisModel model;
+
+	// inputs and other work to run on the simulation thread, in the order they were submitted
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private final AtomicReference<GameSnapshot> snapshot = new AtomicReference<GameSnapshot>();
+	
+	// turns the held keys into moves, checked on every pass of the loop when set
+	private InputEngine inputEngine;
+
+	private volatile boolean running;
+	private volatile Thread thread;
+
+	// counts the frames as they come due, only read from other threads for its statistics
+	private final FrameClock clock = new FrameClock();
+
+	// has to be made before any other block observer is registered, so the snapshot is published
+	// before the other observers ask for a repaint
+	public TetrisSimulation(TetrisModel model) {
+		this.model = model;
+		model.registerBlockObserver(this);
+	}
+
+	// the model has to be set up before the simulation starts
+	public void start() {
+		snapshot.set(new GameSnapshot(model, 0));
+		running = true;
+		thread = new Thread(this, "tetris-simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// stops the simulation thread and waits for it to finish its step
+	public void stop() {
+		Thread t = thread;
+		if (t == null)
+			return;
+		running = false;
+		LockSupport.unpark(t);
+		if (t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		thread = null;
+		tasks.clear();
+	}
+
+	// the engine has to be set while the simulation is stopped
+	public void setInputEngine(InputEngine inputEngine) {
+		this.inputEngine = inputEngine;
+	}
+
+	// wakes the simulation thread up, after a key event has been handed to the input engine
+	public void wake() {
+		LockSupport.unpark(thread);
+	}
+
+	public void submit(TetrisInput input) {
+		execute(() -> model.step(input));
+	}
+
+	// runs a task on the simulation thread, the only thread that may touch the model while it runs
+	public void execute(Runnable task) {
+		tasks.offer(task);
+		LockSupport.unpark(thread);
+	}
+
+	@Override
+	public void run() {
+		clock.start(System.nanoTime());
+		while (running && model.isGameInProgress()) {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+			// every frame is due at its place on the clock, whenever the one before it actually ran,
+			// so the game keeps its speed even when a step is late
+			for (int due = clock.due(System.nanoTime()); due > 0 && running && model.isGameInProgress(); due--) {
+				model.frame();
+			}
+			// the keys are read after gravity, so a block that has just spawned is moved right away
+			long wake = clock.nextDue();
+			if (inputEngine != null) {
+				inputEngine.update(System.nanoTime());
+				wake = Math.min(wake, inputEngine.nextDue());
+			}
+			if (tasks.isEmpty()) {
+				LockSupport.parkNanos(this, wake - System.nanoTime());
+			}
+		}
+		running = false;
+	}
+
+	// publishes the state at the end of every step of the model
+	@Override
+	public void blocksChanged(FrameDelta delta) {
+		snapshot.set(new GameSnapshot(model, delta.getFrame()));
+	}
+
+	// the latest published state, safe to read from any thread
+	public GameSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public boolean isSimulationThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	public FrameClock getClock() {
+		return clock;
+	}
+
+}
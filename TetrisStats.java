@@ -6,6 +6,10 @@ public class TetrisStats {
 	private int level;
 	private String message;
 	
+	// the blocks locked into the board, and the time the game has run by its own gravity clock
+	private int piecesPlaced;
+	private long gameTimeMillis;
+	
 	public TetrisStats(int score, int linesCleared, int level, String message) {
 		this.score = score;
 		this.linesCleared = linesCleared;
@@ -44,5 +48,21 @@ public class TetrisStats {
 	public void setMessage(String message) {
 		this.message = message;
 	}
+
+	public int getPiecesPlaced() {
+		return piecesPlaced;
+	}
+
+	public void setPiecesPlaced(int piecesPlaced) {
+		this.piecesPlaced = piecesPlaced;
+	}
+
+	public long getGameTimeMillis() {
+		return gameTimeMillis;
+	}
+
+	public void setGameTimeMillis(long gameTimeMillis) {
+		this.gameTimeMillis = gameTimeMillis;
+	}
 	
 }
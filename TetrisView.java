@@ -1,11 +1,7 @@
 import java.awt.*;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyListener;
-import java.io.File;
-import java.io.IOException;
 
-import javax.imageio.ImageIO;
-import javax.sound.sampled.*;
 import javax.swing.*;
 
 public class TetrisView extends JFrame {
@@ -18,6 +14,10 @@ public class TetrisView extends JFrame {
 	private JPanel gamePanel;
 	
 	private TetrisGrid grid;
+	private TetrisRenderer renderer;
+	
+	// set when the model runs on a simulation thread, the grid then paints its snapshots
+	private volatile TetrisSimulation simulation;
 	
 	private JButton[] difficultyButtons;
 	private JButton mainMenuButton;
@@ -37,10 +37,15 @@ public class TetrisView extends JFrame {
 	private int message = 0;
 	private JLabel messageLabel;
 	
-	private Clip clip;
-	private long clipTimePosition = 0;
+	// plays the music and the sound effects of the game
+	private AudioEngine audio;
+	
+	// loads the images of the menu in the background
+	private AssetLoader assets = new AssetLoader();
+	
+	// the startup timeline is reported once the menu can be used and the logo is in
+	private int startupSteps = 2;
 	private boolean musicOn = true;
-	private boolean showingShadow = true;
 
 	public TetrisView(TetrisModel m) {
 		// setup the JFrame with a CardLayout
@@ -60,7 +65,7 @@ public class TetrisView extends JFrame {
 		menuPanel.add(buttonPanel, BorderLayout.SOUTH);
 		buttonPanel.add(new JLabel("Choose your level of difficulty"), BorderLayout.NORTH);
 		
-		String[] buttonLabels = {"Easy", "Medium", "Hard", "Adaptive"};
+		String[] buttonLabels = {"Easy", "Medium", "Hard", "Adaptive", "AI", "Practice"};
 		difficultyButtons = new JButton[buttonLabels.length];
 		for (int i = 0; i < buttonLabels.length; i++) {
 			difficultyButtons[i] = new JButton(buttonLabels[i]);
@@ -109,8 +114,18 @@ public class TetrisView extends JFrame {
 		
 		// attach the references to the model and controller
     	this.model = m;
+    	this.renderer = new TetrisRenderer(model, mainFont);
+    	// squares are drawn from pre-rendered tiles, tetris.skin=none fills them with plain rectangles
+    	String skin = System.getProperty("tetris.skin", "flat");
+    	renderer.setSkin(skin.equals("none") ? null : TileAtlas.Skin.valueOf(skin.toUpperCase()));
     	this.controller = new TetrisController(model, this);
     	
+    	// the music is decoded in the background while the menu is up
+    	audio = new AudioEngine();
+    	audio.start();
+    	audio.load("tetristheme.wav").thenRun(() -> StartupTimeline.mark("music decoded"));
+    	model.registerBlockObserver(audio);
+    	
     	// create the menu bar
 		JMenuBar menuBar = new JMenuBar();
 		JMenu musicMenu = new JMenu("Music");
@@ -133,6 +148,7 @@ public class TetrisView extends JFrame {
 		menuBar.add(musicMenu);
 		menuBar.add(shadowBlockMenu);
 		this.setJMenuBar(menuBar);
+		StartupTimeline.mark("view built");
     	
     } // end constructor
 	
@@ -154,7 +170,39 @@ public class TetrisView extends JFrame {
 		if (stats.getMessage().equals("GAME OVER!")) {
 			stopMusic();
 		}
-		repaint();
+	}
+	
+	// repaints only the squares and previews that changed in a step of the model
+	// Swing merges the regions of one component into a single paint, so a frame costs one pass
+	public void repaintChanged(FrameDelta delta) {
+		int cell = TetrisRenderer.cellSize(delta.getRows(), model.getColumns());
+		for (int row = 1; row < delta.getRows(); row++) {
+			long mask = delta.getChangedRowMask(row);
+			// each run of changed columns becomes one region
+			while (mask != 0) {
+				int start = Long.numberOfTrailingZeros(mask);
+				int end = Long.numberOfTrailingZeros(~(mask >>> start)) + start;
+				grid.repaint(start * cell, (row - 1) * cell, (end - start) * cell, cell);
+				// a shift by 64 would leave the mask as it is
+				mask = end == 64 ? 0 : mask & -1L << end;
+			}
+		}
+		if (delta.isNextChanged()) {
+			grid.repaint(TetrisRenderer.NEXT_AREA);
+		}
+		if (delta.isHoldChanged()) {
+			grid.repaint(TetrisRenderer.HOLD_AREA);
+		}
+	}
+	
+	private void startupStep() {
+		if (--startupSteps == 0) {
+			StartupTimeline.report();
+		}
+	}
+	
+	public void setSimulation(TetrisSimulation simulation) {
+		this.simulation = simulation;
 	}
 	
 	public void setMainMenuButtonVisible(boolean visible) {
@@ -176,24 +224,41 @@ public class TetrisView extends JFrame {
 	
 	private class MenuPanel extends JPanel {
 		
+		private boolean painted;
+		
 		MenuPanel(BorderLayout b) {
 			super(b);
-			JLabel logo = null;  
-			// try to load the image of the tetris logo
-			try {
-				Image i = ImageIO.read(new File("tetrislogo.png"));
-				logo = new JLabel(new ImageIcon(i.getScaledInstance(450, 300, 0)));
-			} catch (IOException e) {
-				e.printStackTrace();
-				logo = new JLabel("Tetris");
-			}			
+			// the menu is shown right away, the logo takes the place kept for it once it has been loaded and scaled
+			JLabel logo = new JLabel();
+			logo.setPreferredSize(new Dimension(450, 300));
 			this.add(logo);
+			assets.loadScaled("tetrislogo.png", 450, 300).whenComplete((image, error) ->
+				SwingUtilities.invokeLater(() -> {
+					if (error != null) {
+						error.printStackTrace();
+						logo.setText("Tetris");
+						StartupTimeline.mark("logo failed");
+					} else {
+						logo.setIcon(new ImageIcon(image));
+						StartupTimeline.mark("logo shown");
+					}
+					startupStep();
+				}));
 		}
 		
 		public void paintComponent(Graphics g) {
 			super.paintComponent(g);
 			g.setColor(Color.BLACK);
 			g.fillRect(0, 0, getWidth(), getHeight());
+			if (!painted) {
+				painted = true;
+				StartupTimeline.mark("first frame painted");
+				// the menu takes input once the event thread gets past this paint
+				SwingUtilities.invokeLater(() -> {
+					StartupTimeline.mark("first interactive frame");
+					startupStep();
+				});
+			}
 		}
 	}
 	
@@ -204,100 +269,31 @@ public class TetrisView extends JFrame {
     	}
 
         public void paintComponent(Graphics g) {
-            // grid
-            for (int row = 1; row <= 20; row++) {
-                for (int col = 0; col < 10; col++) {
-                	g.setColor(convertBlockToColor(model.blockAt(row, col)));
-                	g.fillRect(col*30, (row-1)*30, 30, 30);
-                }
-            }
-            
-            // next blocks
-        	g.setColor(Color.BLACK);
-        	g.setFont(mainFont);
-            g.drawString("NEXT", 330, 30);
-            int currentY = 60;
-    		for (Block b : model.getNextBlocks()) {
-    			if (b.getBlockType() == Block.I_BLOCK)
-    				currentY -= 30;
-    			for (int i = 0; i < b.getDimensions().length; i++) {
-    				for (int j = 0; j < b.getDimensions()[0].length; j++) {
-    					Color c = convertBlockToColor(b.getSquareAt(i, j));
-        				if (c == Color.BLACK) continue; 
-    					g.setColor(c);
-                		g.fillRect(330 + 30*j, currentY + 30*i, 30, 30);
-    				}
-    			}
-    			currentY += 30 * (b.getDimensions().length);
-    			if (b.getBlockType() == Block.O_BLOCK)
-    				currentY += 30;
-    			if (b.getBlockType() == Block.I_BLOCK)
-    				currentY -= 30;
-    		}
-   		
-    		// held block
-    		g.setColor(Color.BLACK);
-        	g.setFont(mainFont);
-            g.drawString("HOLD", 470, 30);
-    		if (model.getHeldBlock() != null) {
-        		int[][] held = model.getHeldBlock().getDimensions();
-        		currentY = 60;
-        		if (model.getHeldBlock().getBlockType() == Block.I_BLOCK)
-        			currentY -= 30;
-        		for (int i = 0; i < held.length; i++) {
-        			for (int j = 0; j < held[0].length; j++) {
-        				Color c = convertBlockToColor(held[i][j]);
-        				if (c == Color.BLACK) continue; 
-    					g.setColor(c);
-    					g.fillRect(470 + 30*j, currentY + 30*i, 30, 30);
-        			}
-        		}
-    		} 
- 
+        	long start = TetrisMetrics.ENABLED ? System.nanoTime() : 0;
+        	TetrisSimulation s = simulation;
+        	GameSnapshot snapshot = s != null ? s.getSnapshot() : null;
+        	if (snapshot != null) {
+        		renderer.paint(g, snapshot);
+        	} else {
+        		renderer.paint(g);
+        	}
+        	if (TetrisMetrics.ENABLED) {
+        		TetrisMetrics.recordPaint(System.nanoTime() - start);
+        	}
         }  // end paintComponent()
+        
+        // a new window can have a different screen layout, so the cached images are made again
+        public void addNotify() {
+        	super.addNotify();
+        	renderer.invalidateCache();
+        }
 
     } // end nested class TetrisGrid
     
-    public Color convertBlockToColor(int blockType) {
-    	switch (blockType) {
-    		case Block.SHADOW_BLOCK:
-    			if (showingShadow)
-    				return Color.GRAY;
-    			else
-    				return Color.BLACK;
-			case Block.I_BLOCK:
-				return Color.CYAN;
-			case Block.J_BLOCK:
-				return Color.BLUE;
-			case Block.L_BLOCK:
-				return Color.ORANGE;
-			case Block.O_BLOCK:
-				return Color.YELLOW;
-			case Block.S_BLOCK:
-				return Color.GREEN;
-			case Block.T_BLOCK:
-				return Color.MAGENTA;
-			case Block.Z_BLOCK:
-				return Color.RED;
-			default:
-				return Color.BLACK;
-    	}
-    }
-    
     // plays music when the game starts
+    // the file is only decoded once, and never on the event thread
     public void playMusic(String fileName) {
-		try {
-			File soundFile = new File(fileName); // Open an audio input stream from a wave File
-			AudioInputStream audioIn = AudioSystem.getAudioInputStream(soundFile);
-			clip = AudioSystem.getClip(); // Get a sound clip resource.
-			clip.open(audioIn); // Open audio clip and load samples from the audio input stream.
-			clip.setMicrosecondPosition(0);
-			clip.start();
-			clip.loop(clip.LOOP_CONTINUOUSLY);
-		} 
-		catch (Exception e) { 
-			e.printStackTrace(); 
-		} 
+    	audio.playMusic(fileName);
 	}
     
     // user clicks the music on option
@@ -306,10 +302,8 @@ public class TetrisView extends JFrame {
     		return;
     	musicOn = true;
     	if (model.isGameInProgress()) {
-    		if (clip != null) {
-    			clip.setMicrosecondPosition(clipTimePosition);
-		    	clip.start();
-		    	clip.loop(clip.LOOP_CONTINUOUSLY);
+    		if (audio.isMusicLoaded()) {
+    			audio.resumeMusic();
     		} else {
     			playMusic("tetristheme.wav");
     		}
@@ -317,23 +311,17 @@ public class TetrisView extends JFrame {
     }
     
     // user clicks the music off option
+    // the music carries on from the same sample when it is turned back on
     public void muteMusic() {
     	if (!musicOn)
     		return;
     	musicOn = false;
-    	stopMusic();
-    	if (clip != null) {
-    		clipTimePosition = clip.getMicrosecondPosition();
-    	}
+    	audio.pauseMusic();
     }
     
     // the difference in this method is that the music will still play after a new game starts
     public void stopMusic() {
-    	if (clip != null) {
-    		clip.stop();
-    		clip.flush();
-    		clipTimePosition = 0;
-    	}
+    	audio.stopMusic();
     }
     
     public boolean isMusicOn() {
@@ -341,7 +329,7 @@ public class TetrisView extends JFrame {
     }
     
     public void setShowingShadow(boolean showingShadow) {
-    	this.showingShadow = showingShadow;
+    	renderer.setShowingShadow(showingShadow);
     }
 
 	public JPanel getMainPanel() {
@@ -0,0 +1,91 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// one pre-rendered square for every block type and for the shadow block
+// drawing a square is then a single image copy, however much work the skin puts into it
+public class TileAtlas {
+
+	public enum Skin {
+		FLAT, BEVELED
+	}
+
+	// the screen the tiles were made for, null when drawing into plain images
+	private final GraphicsConfiguration config;
+	private final Skin skin;
+
+	// every tile is repeated across a whole row, so a run of equal squares is copied at once
+	// the shadow block is at index 0, every other block type at its type + 1
+	private final Image[] tiles;
+	private final int size;
+	private final int columns;
+
+	// size is the width of a square in pixels, columns the number of squares in a row of the board
+	public TileAtlas(GraphicsConfiguration config, Skin skin, Color[] colors, Color shadow, int size, int columns) {
+		this.config = config;
+		this.skin = skin;
+		this.size = size;
+		this.columns = columns;
+		tiles = new Image[colors.length + 1];
+		tiles[0] = createStrip(shadow, false);
+		for (int i = 0; i < colors.length; i++) {
+			// empty squares stay flat so the grid does not look filled in
+			tiles[i + 1] = createStrip(colors[i], i > 0);
+		}
+	}
+
+	private Image createStrip(Color color, boolean block) {
+		// compatible images match the layout of the screen, so Java2D can keep them in video memory
+		int width = size * columns;
+		BufferedImage strip = config != null
+				? config.createCompatibleImage(width, size, Transparency.OPAQUE)
+				: new BufferedImage(width, size, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = strip.createGraphics();
+		for (int x = 0; x < width; x += size) {
+			g.translate(x, 0);
+			drawTile(g, color, block);
+			g.translate(-x, 0);
+		}
+		g.dispose();
+		return strip;
+	}
+
+	private void drawTile(Graphics2D g, Color color, boolean block) {
+		g.setColor(color);
+		g.fillRect(0, 0, size, size);
+		if (skin == Skin.BEVELED && block) {
+			int edge = Math.max(2, size / 8);
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			// light falls from the top left
+			g.setColor(color.brighter());
+			g.fillPolygon(new int[] {0, size, size - edge, edge, edge, 0},
+					new int[] {0, 0, edge, edge, size - edge, size}, 6);
+			g.setColor(color.darker());
+			g.fillPolygon(new int[] {size, size, 0, edge, size - edge, size - edge},
+					new int[] {0, size, size, size - edge, size - edge, edge}, 6);
+			g.setPaint(new GradientPaint(edge, edge, color, size - edge, size - edge, color.darker()));
+			g.fillRect(edge, edge, size - 2 * edge, size - 2 * edge);
+		}
+	}
+
+	// draws count squares of a block type next to each other, starting at (x, y)
+	public void draw(Graphics g, int blockType, int count, int x, int y) {
+		Image strip = tiles[blockType == Block.SHADOW_BLOCK ? 0 : blockType + 1];
+		int width = count * size;
+		g.drawImage(strip, x, y, x + width, y + size, 0, 0, width, size, null);
+	}
+
+	// the tiles have to be made again when the window moves to a screen with a different layout,
+	// or a game is played on a board of another size
+	public boolean isCompatible(GraphicsConfiguration gc, int size, int columns) {
+		return gc == config && size == this.size && columns <= this.columns;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public Skin getSkin() {
+		return skin;
+	}
+
+}
@@ -0,0 +1,123 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// a fixed-size, lock-free cache of board evaluations shared by every thread of a search
+// each slot is two longs, the key xor the data and the data itself, so a slot torn by two
+// threads writing at once fails the key check instead of returning the wrong score
+public class TranspositionTable {
+
+	// decides whether a new entry may replace the one already in its slot
+	public enum Policy {
+		// always keep the newest entry
+		ALWAYS_REPLACE,
+		// keep entries that took a deeper search to compute, unless they are from an older search
+		DEPTH_PREFERRED
+	}
+
+	private final AtomicLongArray slots;
+	private final int mask;
+	private final Policy policy;
+
+	// searches started since the table was created, stored with every entry so old entries can be aged out
+	// never zero, so a used slot never reads as empty
+	private volatile int generation = 1;
+
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+	private final LongAdder replaced = new LongAdder();
+
+	// the number of entries is rounded up to a power of two
+	public TranspositionTable(int entries, Policy policy) {
+		int size = Integer.highestOneBit(Math.max(1, entries - 1)) << 1;
+		slots = new AtomicLongArray(size * 2);
+		mask = size - 1;
+		this.policy = policy;
+	}
+
+	public void newSearch() {
+		generation = generation % 0xFFFF + 1;
+	}
+
+	// returns true and fills score[0] if the key is in the table
+	public boolean lookup(long key, double[] score) {
+		probes.increment();
+		int index = index(key);
+		long data = slots.get(index + 1);
+		if ((slots.get(index) ^ data) != key || data == 0)
+			return false;
+		hits.increment();
+		score[0] = Float.intBitsToFloat((int) (data >>> 32));
+		return true;
+	}
+
+	// depth is how many blocks were searched below the board to get its score
+	public void store(long key, double score, int depth) {
+		int index = index(key);
+		long old = slots.get(index + 1);
+		if (old != 0 && policy == Policy.DEPTH_PREFERRED) {
+			int oldDepth = (int) (old >>> 16) & 0xFFFF;
+			int oldGeneration = (int) old & 0xFFFF;
+			if (oldGeneration == generation && oldDepth > depth)
+				return;
+		}
+		if (old != 0) {
+			replaced.increment();
+		}
+		stores.increment();
+		long data = ((long) Float.floatToIntBits((float) score) << 32)
+				| ((long) (depth & 0xFFFF) << 16) | generation;
+		slots.set(index + 1, data);
+		slots.set(index, key ^ data);
+	}
+
+	private int index(long key) {
+		// the low bits of a zobrist hash are as random as the high ones
+		return ((int) key & mask) << 1;
+	}
+
+	public void clear() {
+		for (int i = 0; i < slots.length(); i++) {
+			slots.set(i, 0);
+		}
+	}
+
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public double getHitRate() {
+		long p = probes.sum();
+		return p == 0 ? 0 : (double) hits.sum() / p;
+	}
+
+	public long getStores() {
+		return stores.sum();
+	}
+
+	public long getReplaced() {
+		return replaced.sum();
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	public void resetStats() {
+		probes.reset();
+		hits.reset();
+		stores.reset();
+		replaced.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries (%s): %d probes, %.1f%% hits, %d stores, %d replaced",
+				getCapacity(), policy, getProbes(), getHitRate() * 100, getStores(), getReplaced());
+	}
+
+}
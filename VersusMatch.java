@@ -0,0 +1,89 @@
+import java.util.concurrent.ForkJoinPool;
+
+// two games played against each other, the lines one player clears rise as garbage on the other's board
+// a match only links the models, whatever plays them can run each on its own thread
+//
+// the main method plays bots against each other without a window, a piece at a time each
+// java VersusMatch [matches] [depth] [opponentDepth] [budgetMillis] [seed]
+public class VersusMatch {
+
+	// a match that nobody loses in this many pieces each is a draw
+	private static final int MAX_PIECES = 1000;
+
+	private final TetrisModel[] players;
+
+	public VersusMatch(TetrisModel first, TetrisModel second) {
+		players = new TetrisModel[] { first, second };
+		first.setOpponent(second);
+		second.setOpponent(first);
+	}
+
+	// both games start with the same blocks, so only the play and the garbage tell them apart
+	public void start(int speed, long seed) {
+		for (TetrisModel player : players) {
+			player.setUpGame(speed, new BagRandomizer(1, seed));
+		}
+	}
+
+	public TetrisModel getPlayer(int index) {
+		return players[index];
+	}
+
+	// the index of the player still in the game once the other has topped out, -1 while both play
+	public int getWinner() {
+		boolean first = players[0].isGameInProgress(), second = players[1].isGameInProgress();
+		if (first == second)
+			return -1;
+		return first ? 0 : 1;
+	}
+
+	public static void main(String[] args) {
+		int matches = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int opponentDepth = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		long budget = args.length > 3 ? Long.parseLong(args[3]) : 20;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+
+		ForkJoinPool pool = new ForkJoinPool();
+		TetrisBot[] bots = { new TetrisBot(pool, depth, budget), new TetrisBot(pool, opponentDepth, budget) };
+		int[] wins = new int[2];
+		int[] sent = new int[2];
+		for (int m = 0; m < matches; m++) {
+			TetrisModel[] models = { new TetrisModel(), new TetrisModel() };
+			for (int p = 0; p < 2; p++) {
+				final int player = p;
+				models[p].registerBlockObserver(delta -> sent[player] += delta.getGarbageSent());
+			}
+			VersusMatch match = new VersusMatch(models[0], models[1]);
+			match.start(100, seed + m);
+			long started = System.nanoTime();
+			int pieces = 0;
+			// the player who has placed fewer pieces moves next, so both play at the same pace
+			while (match.getWinner() < 0 && models[0].isGameInProgress() && pieces < 2 * MAX_PIECES) {
+				int p = models[0].getGameStats().getPiecesPlaced() <= models[1].getGameStats().getPiecesPlaced()
+						? 0 : 1;
+				TetrisBot.Move move = bots[p].findMove(models[p]);
+				if (move == null) {
+					// nowhere to put the block, the player gives up
+					models[p].gameOver();
+					break;
+				}
+				TetrisBot.play(models[p], move);
+				pieces++;
+			}
+			int winner = match.getWinner();
+			if (winner >= 0) {
+				wins[winner]++;
+			}
+			System.out.printf("match %d: %s after %d pieces, lines %d / %d, garbage sent %d / %d, %.1fs%n", m + 1,
+					winner < 0 ? "draw" : "player " + (winner + 1) + " wins", pieces,
+					models[0].getGameStats().getLinesCleared(), models[1].getGameStats().getLinesCleared(),
+					sent[0], sent[1], (System.nanoTime() - started) / 1e9);
+			sent[0] = sent[1] = 0;
+		}
+		System.out.printf("player 1 won %d, player 2 won %d, %d draws%n", wins[0], wins[1],
+				matches - wins[0] - wins[1]);
+		pool.shutdown();
+	}
+
+}
@@ -0,0 +1,55 @@
+import java.util.SplittableRandom;
+
+// random keys for every square of the board, a board's hash is the xor of the keys of its occupied squares
+// placing or removing a square only needs one xor to update the hash
+public class Zobrist {
+
+	// fixed seed, so hashes are the same in every run
+	// the rows are made in order as taller boards need them, so a square always gets the same key
+	private static final SplittableRandom RANDOM = new SplittableRandom(0x5EED5EEDL);
+	private static volatile long[][] keys = new long[0][];
+
+	// the keys of every square of a board with this many rows, one array of 64 columns per row
+	// the table only grows, so a board keeps the one it was given
+	public static long[][] keys(int rows) {
+		long[][] k = keys;
+		if (k.length >= rows)
+			return k;
+		synchronized (Zobrist.class) {
+			k = keys;
+			if (k.length < rows) {
+				long[][] grown = new long[rows][];
+				System.arraycopy(k, 0, grown, 0, k.length);
+				for (int i = k.length; i < rows; i++) {
+					grown[i] = new long[TetrisBoard.MAX_COLUMNS];
+					for (int j = 0; j < TetrisBoard.MAX_COLUMNS; j++) {
+						grown[i][j] = RANDOM.nextLong();
+					}
+				}
+				keys = k = grown;
+			}
+			return k;
+		}
+	}
+
+	// the hash of the occupied squares in one row, given the keys of that row
+	public static long row(long[] rowKeys, long mask) {
+		long hash = 0;
+		while (mask != 0) {
+			hash ^= rowKeys[Long.numberOfTrailingZeros(mask)];
+			mask &= mask - 1;
+		}
+		return hash;
+	}
+
+	// the hash of a whole board given as row masks
+	public static long board(long[] rows) {
+		long[][] k = keys(rows.length);
+		long hash = 0;
+		for (int i = 0; i < rows.length; i++) {
+			hash ^= row(k[i], rows[i]);
+		}
+		return hash;
+	}
+
+}
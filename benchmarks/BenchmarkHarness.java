@@ -0,0 +1,83 @@
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+// a small stand-in for JMH, which refuses benchmark classes in the default package
+// every benchmark runs warmup iterations and then measured iterations of a fixed length, and reports
+// the time per operation and the bytes allocated per operation (what the JMH gc profiler calls gc.alloc.rate.norm)
+//
+// the iteration counts and length can be changed with -Dbench.warmup, -Dbench.iterations and -Dbench.millis
+public class BenchmarkHarness {
+
+	// returns a value so the work cannot be optimized away
+	public interface Operation {
+		long run();
+	}
+
+	private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+	private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+	private static final long MILLIS = Long.getLong("bench.millis", 1000);
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	// every result is folded in here so the JIT cannot drop the operations
+	static volatile long sink;
+
+	private final String filter;
+
+	public BenchmarkHarness(String[] args) {
+		filter = args.length > 0 ? args[0] : "";
+		System.out.println(String.format(Locale.ROOT, "%-36s %12s %10s %12s %12s",
+				"Benchmark", "ns/op", "error", "B/op", "MB/sec"));
+	}
+
+	public void run(String name, Operation op) {
+		if (!name.contains(filter))
+			return;
+		for (int i = 0; i < WARMUP; i++) {
+			iteration(op);
+		}
+		double[] nanosPerOp = new double[ITERATIONS];
+		double bytes = 0, ops = 0, nanos = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long[] result = iteration(op);
+			nanosPerOp[i] = (double) result[1] / result[0];
+			ops += result[0];
+			nanos += result[1];
+			bytes += result[2];
+		}
+		double mean = nanos / ops;
+		double variance = 0;
+		for (double n : nanosPerOp) {
+			variance += (n - mean) * (n - mean);
+		}
+		double error = ITERATIONS > 1 ? Math.sqrt(variance / (ITERATIONS - 1)) : 0;
+		double bytesPerOp = bytes / ops;
+		double megabytesPerSecond = bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+		System.out.println(String.format(Locale.ROOT, "%-36s %12.2f %10.2f %12.1f %12.1f",
+				name, mean, error, bytesPerOp, megabytesPerSecond));
+	}
+
+	// runs the operation in batches until the iteration time is used up
+	// returns the operations, the nanoseconds and the bytes allocated by this thread
+	private static long[] iteration(Operation op) {
+		long thread = Thread.currentThread().getId();
+		long result = 0;
+		long count = 0;
+		long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long end = start + MILLIS * 1000000;
+		long now;
+		do {
+			for (int i = 0; i < 1000; i++) {
+				result += op.run();
+			}
+			count += 1000;
+			now = System.nanoTime();
+		} while (now < end);
+		long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+		sink += result;
+		return new long[] {count, now - start, bytes};
+	}
+
+}
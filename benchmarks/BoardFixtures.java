@@ -0,0 +1,51 @@
+
+// boards that look like the middle of a real game, used by the benchmarks
+public class BoardFixtures {
+
+	// a stack eight rows high with a few holes and overhangs, one string per row from the top
+	private static final String[] MID_GAME = {
+		"....T.....",
+		"...TTT..I.",
+		"JJ.OO.SSI.",
+		"J..OO.SSI.",
+		"J.LL.ZZ.I.",
+		"LLLL.SZZTT",
+		"OO.ISSTTT.",
+		"OO.IS.ZZJJ",
+	};
+
+	private static final String FULL_ROW = "IJLOSTZJLI";
+
+	// the mid game stack without any complete rows
+	public static TetrisBoard midGame() {
+		return withFullRows(0);
+	}
+
+	// the mid game stack sitting on top of the given number of complete rows
+	public static TetrisBoard withFullRows(int fullRows) {
+		return withFullRows(TetrisBoard.ROWS, TetrisBoard.COLUMNS, fullRows);
+	}
+
+	// the same on a board of any size, the stack is repeated across a wider board
+	public static TetrisBoard withFullRows(int rows, int columns, int fullRows) {
+		TetrisBoard board = new TetrisBoard(rows, columns);
+		int row = rows - 1;
+		for (int i = 0; i < fullRows; i++) {
+			fill(board, row--, FULL_ROW);
+		}
+		for (int i = MID_GAME.length - 1; i >= 0; i--) {
+			fill(board, row--, MID_GAME[i]);
+		}
+		return board;
+	}
+
+	private static void fill(TetrisBoard board, int row, String squares) {
+		for (int col = 0; col < board.getColumns(); col++) {
+			int type = "IJLOSTZ".indexOf(squares.charAt(col % squares.length())) + 1;
+			if (type > 0) {
+				board.set(row, col, type);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+import java.util.concurrent.ForkJoinPool;
+
+// plays headless games with the bot and reports how long each search takes
+// every search has to finish within the 100 ms gravity interval of the hard setting
+//
+// gradle :benchmarks:botBenchmark --args='<pieces> <depth> [nocache]'
+public class BotBenchmark {
+
+	public static void main(String[] args) {
+		int pieces = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		boolean cache = !(args.length > 2 && args[2].equals("nocache"));
+		TranspositionTable table = cache
+				? new TranspositionTable(1 << 20, TranspositionTable.Policy.DEPTH_PREFERRED) : null;
+		TetrisBot bot = new TetrisBot(new ForkJoinPool(), depth, 80, table);
+
+		TetrisModel model = new TetrisModel();
+		long seed = 1;
+		model.setUpGame(100, new BagRandomizer(1, seed));
+		long total = 0, worst = 0;
+		int games = 1;
+		long lines = 0;
+		for (int i = 0; i < pieces; i++) {
+			if (!model.isGameInProgress()) {
+				lines += model.getGameStats().getLinesCleared();
+				model.setUpGame(100, new BagRandomizer(1, ++seed));
+				games++;
+			}
+			long start = System.nanoTime();
+			TetrisBot.Move move = bot.findMove(model);
+			long elapsed = System.nanoTime() - start;
+			// the first searches run before the JIT has compiled anything
+			if (i >= 50) {
+				total += elapsed;
+				worst = Math.max(worst, elapsed);
+			}
+			if (move == null)
+				break;
+			TetrisBot.play(model, move);
+		}
+		lines += model.getGameStats().getLinesCleared();
+		System.out.println("depth:            " + depth + " on " + Runtime.getRuntime().availableProcessors() + " cores");
+		System.out.println("pieces:           " + pieces + " in " + games + " games");
+		System.out.println("lines cleared:    " + lines);
+		System.out.println("mean search (ms): " + String.format("%.2f", total / 1e6 / Math.max(1, pieces - 50)));
+		System.out.println("worst search (ms):" + String.format(" %.2f", worst / 1e6));
+		System.out.println("table:            " + (table == null ? "off" : table.toString()));
+	}
+
+}
@@ -0,0 +1,107 @@
+import java.lang.reflect.InvocationTargetException;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+// lets blocks fall down a tall empty board in real time at a few speeds, first the old way, a row on
+// every tick of a repeating Swing timer set to the gravity delay, then a frame at a time on the frame
+// clock of the simulation thread, and reports how close each came to the speed it was set to and how
+// evenly the rows fell
+//
+// gradle :benchmarks:gravityBenchmark --args='<seconds per run>'
+public class GravityBenchmark {
+
+	private static final String[] SPEEDS = { "1/6", "1/2", "1", "5" };
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		System.out.println("rows/frame  driver        target rows/s  rows/s   gap mean  gap stdev  gap max (ms)");
+		for (String speed : SPEEDS) {
+			GravityCurve curve = GravityCurve.parse(speed, 30);
+			double target = (double) curve.getGravity(1) / GravityCurve.ONE_ROW * GravityCurve.FRAMES_PER_SECOND;
+			report(speed, "swing timer", target, runTimer(curve, seconds));
+			report(speed, "frame clock", target, runFrames(curve, seconds));
+		}
+		System.exit(0);
+	}
+
+	// the old way, a tick of one row every gravity delay, which is whole milliseconds
+	private static Falls runTimer(GravityCurve curve, int seconds) throws Exception {
+		TetrisModel model = tallGame(null);
+		Falls falls = new Falls(model);
+		Timer[] timer = new Timer[1];
+		SwingUtilities.invokeAndWait(() -> {
+			model.setUpGame(GravityCurve.toDelay(curve.getGravity(1)));
+			timer[0] = new Timer(model.getGravityDelay(), e -> model.tick());
+			timer[0].start();
+		});
+		Thread.sleep(seconds * 1000L);
+		SwingUtilities.invokeAndWait(() -> timer[0].stop());
+		return falls;
+	}
+
+	private static Falls runFrames(GravityCurve curve, int seconds) throws InterruptedException,
+			InvocationTargetException {
+		TetrisModel model = tallGame(curve);
+		TetrisSimulation simulation = new TetrisSimulation(model);
+		Falls falls = new Falls(model);
+		// the adaptive mode starts at the first level of the curve
+		model.setUpGame(1000);
+		simulation.start();
+		Thread.sleep(seconds * 1000L);
+		simulation.stop();
+		FrameClock clock = simulation.getClock();
+		System.out.printf("%56s %d frames, %d late by over 1ms, at most %.2fms, %d skipped%n", "", clock.getFrames(),
+				clock.getLateFrames(), clock.getMaxLatenessNanos() / 1e6, clock.getSkippedFrames());
+		return falls;
+	}
+
+	private static TetrisModel tallGame(GravityCurve curve) {
+		TetrisModel model = new TetrisModel();
+		model.setBoardSize(TetrisBoard.MAX_ROWS, TetrisBoard.COLUMNS);
+		model.setGravityCurve(curve);
+		return model;
+	}
+
+	private static void report(String speed, String driver, double target, Falls falls) {
+		double mean = falls.time / 1e6 / falls.gaps;
+		double stdev = Math.sqrt(Math.max(0, falls.squares / 1e12 / falls.gaps - mean * mean));
+		System.out.printf("%-10s  %-12s  %12.1f  %7.1f  %8.2f  %9.2f  %7.2f%n", speed, driver, target,
+				falls.rows * 1e9 / falls.time, mean, stdev, falls.longest / 1e6);
+	}
+
+	// the rows the block fell and the time between its falls, not counting the wait after it lands
+	private static final class Falls implements BlockObserver {
+		private final TetrisModel model;
+		private Block block;
+		private int row;
+		private long at;
+		long rows, gaps, time, longest;
+		double squares;
+
+		Falls(TetrisModel model) {
+			this.model = model;
+			model.registerBlockObserver(this);
+		}
+
+		@Override
+		public void blocksChanged(FrameDelta delta) {
+			if (!delta.isDropped())
+				return;
+			long now = System.nanoTime();
+			Block current = model.getCurrentBlock();
+			if (current == block) {
+				long gap = now - at;
+				rows += current.getRow() - row;
+				gaps++;
+				time += gap;
+				squares += (double) gap * gap;
+				longest = Math.max(longest, gap);
+			}
+			block = current;
+			row = current.getRow();
+			at = now;
+		}
+	}
+
+}
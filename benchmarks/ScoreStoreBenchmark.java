@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+// fills a score store in a temporary directory with years of games, then times the queries against
+// reading every record, checks that they agree, and checks that the store repairs itself after a crash
+//
+// java ScoreStoreBenchmark [games] [queries]
+public class ScoreStoreBenchmark {
+
+	private static final long YEAR = 365L * 24 * 3600 * 1000;
+
+	public static void main(String[] args) throws Exception {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		Path dir = Files.createTempDirectory("scores");
+		try {
+			run(dir, games, queries);
+		} finally {
+			try (Stream<Path> files = Files.list(dir)) {
+				for (Path p : (Iterable<Path>) files::iterator) {
+					Files.delete(p);
+				}
+			}
+			Files.delete(dir);
+		}
+	}
+
+	private static void run(Path dir, int games, int queries) throws Exception {
+		// five years of games, a few minutes apart, the scores mostly modest with a long tail
+		SplittableRandom random = new SplittableRandom(1);
+		GameRecord[] all = new GameRecord[games];
+		long start = System.currentTimeMillis() - 5 * YEAR;
+		long step = 5 * YEAR / games;
+		for (int i = 0; i < games; i++) {
+			int score = (int) (-Math.log(1 - random.nextDouble()) * 2000);
+			all[i] = new GameRecord(start + i * step + random.nextLong(step), random.nextInt(600000), score,
+					score / 120, score / 30, random.nextInt(6), random.nextInt(5));
+		}
+
+		ScoreStore store = new ScoreStore(dir);
+		long t = System.nanoTime();
+		for (int i = 0; i < games; i += 10000) {
+			store.append(Arrays.copyOfRange(all, i, Math.min(games, i + 10000)));
+		}
+		store.size().get();
+		System.out.printf("appended %d games in %.0fms, %.1fMB of records%n", games, (System.nanoTime() - t) / 1e6,
+				Files.size(dir.resolve("scores.dat")) / 1e6);
+
+		check(store, all, games, queries, random, "after appending");
+		store.close();
+
+		// opening again only summarizes the block the index stopped in
+		t = System.nanoTime();
+		store = new ScoreStore(dir);
+		System.out.printf("reopened in %.1fms%n", (System.nanoTime() - t) / 1e6);
+		check(store, all, games, 20, random, "after reopening");
+		store.close();
+
+		// a record torn by a crash is cut off
+		try (FileChannel data = FileChannel.open(dir.resolve("scores.dat"), StandardOpenOption.WRITE)) {
+			data.truncate(data.size() - 7);
+		}
+		store = new ScoreStore(dir);
+		check(store, all, games - 1, 20, random, "after a torn write");
+		store.close();
+
+		// a lost index is made again from the records
+		Files.delete(dir.resolve("scores.idx"));
+		t = System.nanoTime();
+		store = new ScoreStore(dir);
+		System.out.printf("rebuilt the index in %.1fms%n", (System.nanoTime() - t) / 1e6);
+		check(store, all, games - 1, 20, random, "after losing the index");
+		store.close();
+	}
+
+	private static void check(ScoreStore store, GameRecord[] all, int games, int queries, SplittableRandom random,
+			String when) throws Exception {
+		long size = store.size().get();
+		if (size != games)
+			throw new AssertionError(when + ": " + size + " games, expected " + games);
+		long indexed = 0, scanned = 0;
+		for (int q = 0; q < queries; q++) {
+			int difficulty = random.nextInt(5);
+			long t = System.nanoTime();
+			List<GameRecord> top = store.topScores(difficulty, 10).get();
+			indexed += System.nanoTime() - t;
+			t = System.nanoTime();
+			List<GameRecord> expected = scan(all, games, difficulty, 10, Long.MIN_VALUE, Long.MAX_VALUE);
+			scanned += System.nanoTime() - t;
+			compare(top, expected, when + ": top 10 at difficulty " + difficulty);
+
+			// the best of a month, at any difficulty
+			long from = all[0].getEndedAt() + random.nextLong(5 * YEAR);
+			long to = from + YEAR / 12;
+			t = System.nanoTime();
+			GameRecord best = store.personalBest(-1, from, to).get();
+			indexed += System.nanoTime() - t;
+			t = System.nanoTime();
+			expected = scan(all, games, -1, 1, from, to);
+			scanned += System.nanoTime() - t;
+			compare(best == null ? List.of() : List.of(best), expected, when + ": best between " + from + " and " + to);
+		}
+		System.out.printf("%s: %d queries agree, %.1fus each from the index, %.1fus each reading every game%n",
+				when, 2 * queries, indexed / 1e3 / (2 * queries), scanned / 1e3 / (2 * queries));
+	}
+
+	private static List<GameRecord> scan(GameRecord[] all, int games, int difficulty, int n, long from, long to) {
+		ArrayList<GameRecord> matching = new ArrayList<GameRecord>();
+		for (int i = 0; i < games; i++) {
+			GameRecord g = all[i];
+			if ((difficulty < 0 || g.getDifficulty() == difficulty) && g.getEndedAt() >= from && g.getEndedAt() <= to) {
+				matching.add(g);
+			}
+		}
+		matching.sort(Comparator.comparingInt(GameRecord::getScore).reversed());
+		return matching.subList(0, Math.min(n, matching.size()));
+	}
+
+	// games with the same score may come in any order, so only the scores have to agree
+	private static void compare(List<GameRecord> actual, List<GameRecord> expected, String what) throws IOException {
+		int[] a = actual.stream().mapToInt(GameRecord::getScore).toArray();
+		int[] e = expected.stream().mapToInt(GameRecord::getScore).toArray();
+		if (!Arrays.equals(a, e))
+			throw new AssertionError(what + ": " + Arrays.toString(a) + ", expected " + Arrays.toString(e));
+	}
+
+}
@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.SplittableRandom;
+
+// keeps a number of games going on a GameServer from one thread, each sending inputs at a steady rate
+// games that end are replaced by new ones, the server prints its own report of the tick jitter
+//
+// java ServerLoadTest [port] [games] [seconds] [inputsPerSecond]
+public class ServerLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+		int rate = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+		Selector selector = Selector.open();
+		SocketChannel[] channels = new SocketChannel[games];
+		SplittableRandom random = new SplittableRandom(1);
+		ByteBuffer in = ByteBuffer.allocateDirect(4096);
+		ByteBuffer one = ByteBuffer.allocateDirect(1);
+		long started = 0, ended = 0, inputs = 0;
+
+		long end = System.nanoTime() + seconds * 1000000000L;
+		long nextReport = System.nanoTime() + 5000000000L;
+		// inputs go out in rounds of 20ms, each game sends one in a round with the chance that gives the rate
+		double chance = rate / 50.0;
+		while (System.nanoTime() < end) {
+			long round = System.nanoTime();
+			for (int i = 0; i < games; i++) {
+				if (channels[i] == null) {
+					channels[i] = connect(address, selector, i);
+					started++;
+					continue;
+				}
+				if (random.nextDouble() < chance) {
+					// mostly moves and rotations, now and then a hard drop
+					int input = random.nextInt(20) == 0 ? TetrisInput.HARD_DROP.ordinal() : random.nextInt(4);
+					one.clear();
+					one.put((byte) input).flip();
+					try {
+						channels[i].write(one);
+						inputs++;
+					} catch (IOException e) {
+						channels[i].close();
+						channels[i] = null;
+					}
+				}
+			}
+			// read whatever the server sent, a closed connection is a finished game
+			selector.selectNow();
+			for (SelectionKey key : selector.selectedKeys()) {
+				int i = (Integer) key.attachment();
+				SocketChannel channel = (SocketChannel) key.channel();
+				in.clear();
+				int n;
+				try {
+					n = channel.read(in);
+				} catch (IOException e) {
+					n = -1;
+				}
+				if (n < 0) {
+					key.cancel();
+					channel.close();
+					if (channels[i] == channel) {
+						channels[i] = null;
+					}
+					ended++;
+				}
+			}
+			selector.selectedKeys().clear();
+			if (System.nanoTime() > nextReport) {
+				System.out.printf("games started %d  ended %d  inputs sent %d%n", started, ended, inputs);
+				nextReport += 5000000000L;
+			}
+			long sleep = 20000000L - (System.nanoTime() - round);
+			if (sleep > 0) {
+				Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+			}
+		}
+		System.out.printf("games started %d  ended %d  inputs sent %d%n", started, ended, inputs);
+	}
+
+	private static SocketChannel connect(InetSocketAddress address, Selector selector, int index) throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, index);
+		return channel;
+	}
+
+}
@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+// plays a long headless game with the bot, saving the game as every block spawns like practice games do,
+// then reports the memory the snapshots keep, times restoring them in random order, and checks that
+// the game played on from a restored snapshot ends exactly as the first time
+// garbage rises every few blocks, so the garbage holes are restored as well
+//
+// gradle :benchmarks:snapshotBenchmark --args='<pieces> <restores> [randomizer]'
+public class SnapshotBenchmark {
+
+	private static final int GARBAGE_EVERY = 12;
+
+	public static void main(String[] args) {
+		int pieces = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int restores = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		String name = args.length > 2 ? args[2] : BagRandomizer.SEVEN_BAG;
+		TetrisBot bot = new TetrisBot(new ForkJoinPool(), 1, 20);
+
+		TetrisModel model = new TetrisModel();
+		model.setUpGame(100, PieceRandomizer.create(name, 1));
+		ArrayList<TetrisModel.Snapshot> history = new ArrayList<TetrisModel.Snapshot>();
+		ArrayList<TetrisBot.Move> moves = new ArrayList<TetrisBot.Move>();
+		long saving = 0;
+		while (moves.size() < pieces && model.isGameInProgress()) {
+			long t = System.nanoTime();
+			history.add(model.save());
+			saving += System.nanoTime() - t;
+			TetrisBot.Move move = bot.findMove(model);
+			if (move == null)
+				break;
+			moves.add(move);
+			play(model, move, moves.size() - 1);
+		}
+		String end = describe(model);
+		long bytes = retainedBytes(history);
+		System.out.printf("%s: %d blocks, %d lines, %s%n", name, moves.size(),
+				model.getGameStats().getLinesCleared(), model.isGameInProgress() ? "still playing" : "game over");
+		System.out.printf("saved %d snapshots in %.2fus each, about %d bytes kept each, %.2fMB in all%n",
+				history.size(), saving / 1e3 / history.size(), bytes / history.size(), bytes / 1e6);
+
+		SplittableRandom random = new SplittableRandom(7);
+		for (int round = 0; round < 3; round++) {
+			long t = System.nanoTime();
+			for (int i = 0; i < restores; i++) {
+				model.restore(history.get(random.nextInt(history.size())));
+			}
+			System.out.printf("restored %d random snapshots in %.2fus each%n", restores,
+					(System.nanoTime() - t) / 1e3 / restores);
+		}
+
+		// every game played on from a restored snapshot with the same moves ends the same way
+		int checks = Math.min(200, history.size());
+		for (int c = 0; c < checks; c++) {
+			int from = c == 0 ? 0 : random.nextInt(history.size());
+			model.restore(history.get(from));
+			for (int i = from; i < moves.size(); i++) {
+				play(model, moves.get(i), i);
+			}
+			String replayed = describe(model);
+			if (!replayed.equals(end))
+				throw new AssertionError("played on from block " + from + ": " + replayed + ", expected " + end);
+		}
+		System.out.printf("%d games played on from restored snapshots all ended as %s%n", checks, end);
+		System.exit(0);
+	}
+
+	private static void play(TetrisModel model, TetrisBot.Move move, int piece) {
+		if (piece % GARBAGE_EVERY == GARBAGE_EVERY - 1) {
+			model.receiveGarbage(2);
+		}
+		TetrisBot.play(model, move);
+	}
+
+	// the bytes the snapshots keep on a 64 bit JVM with compressed references, every shared row counted once
+	private static long retainedBytes(ArrayList<TetrisModel.Snapshot> history) {
+		IdentityHashMap<TetrisBoard.Row, Boolean> rows = new IdentityHashMap<TetrisBoard.Row, Boolean>();
+		long bytes = 0;
+		for (TetrisModel.Snapshot s : history) {
+			// the snapshot, its row array and its next blocks, the strings are shared with the game
+			bytes += 112 + align(16 + 4L * s.rows.length) + align(16 + s.nextTypes.length);
+			for (TetrisBoard.Row row : s.rows) {
+				if (rows.put(row, Boolean.TRUE) == null) {
+					bytes += 32 + align(16 + s.columns);
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	private static String describe(TetrisModel model) {
+		TetrisStats stats = model.getGameStats();
+		return String.format("board %016x, score %d, lines %d, pieces %d, next %d", model.getBoard().getHash(),
+				stats.getScore(), stats.getLinesCleared(), stats.getPiecesPlaced(), model.getNextType(0));
+	}
+
+}
@@ -0,0 +1,195 @@
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+// plays a game as fast as asked and streams it to many watchers in the same process, some of which read
+// far too slowly, then checks that every watcher ends up with the same game as the model
+//
+// java SpectatorLoadTest [watchers] [slowWatchers] [stepsPerSecond] [seconds] [rows] [columns]
+public class SpectatorLoadTest {
+
+	private static final class Watcher {
+		final SocketChannel channel;
+		final boolean slow;
+		final ByteBuffer in;
+		final SpectatorState state = new SpectatorState();
+		long messages;
+		long bytes;
+
+		// a watcher has to be able to hold at least one keyframe
+		Watcher(SocketChannel channel, boolean slow, int keyframeSize) {
+			this.channel = channel;
+			this.slow = slow;
+			in = ByteBuffer.allocate(Math.max(keyframeSize, slow ? 2048 : 64 * 1024));
+		}
+
+		// applies every whole message that has arrived
+		boolean read() throws Exception {
+			int n = channel.read(in);
+			if (n < 0)
+				return false;
+			bytes += Math.max(0, n);
+			in.flip();
+			while (in.remaining() >= 2 && in.remaining() >= 2 + (in.getShort(in.position()) & 0xFFFF)) {
+				state.apply(in);
+				messages++;
+			}
+			in.compact();
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int watcherCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int slowCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int stepsPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+		int rows = args.length > 4 ? Integer.parseInt(args[4]) : TetrisBoard.ROWS;
+		int columns = args.length > 5 ? Integer.parseInt(args[5]) : TetrisBoard.COLUMNS;
+
+		TetrisModel model = new TetrisModel();
+		model.setBoardSize(rows, columns);
+		SpectatorFeed feed = new SpectatorFeed(model, 0);
+		// the frame of the last message, which every watcher has to reach
+		long[] lastFrame = new long[1];
+		model.registerBlockObserver(delta -> lastFrame[0] = delta.getFrame());
+		model.setUpGame(100, new BagRandomizer(1, 1));
+		feed.start();
+
+		Selector selector = Selector.open();
+		Watcher[] watchers = new Watcher[watcherCount];
+		for (int i = 0; i < watcherCount; i++) {
+			boolean slow = i < slowCount;
+			SocketChannel channel = SocketChannel.open();
+			if (slow) {
+				// a small window, so the feed has to hold what the watcher has not read
+				channel.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+			}
+			channel.connect(new InetSocketAddress("127.0.0.1", feed.getPort()));
+			channel.configureBlocking(false);
+			watchers[i] = new Watcher(channel, slow, SpectatorState.keyframeSize(rows, columns));
+			channel.register(selector, SelectionKey.OP_READ, watchers[i]);
+		}
+
+		// the model plays on a thread of its own, as the simulation thread would run it
+		long[] steps = new long[1];
+		long[] encodeNanos = new long[1];
+		Thread player = new Thread(() -> {
+			SplittableRandom random = new SplittableRandom(7);
+			long interval = 1000000000L / stepsPerSecond;
+			long next = System.nanoTime();
+			long end = next + seconds * 1000000000L;
+			while (next < end) {
+				long now = System.nanoTime();
+				if (now < next) {
+					LockSupport.parkNanos(next - now);
+					continue;
+				}
+				long t = System.nanoTime();
+				if (!model.isGameInProgress()) {
+					model.setUpGame(100, new BagRandomizer(1, random.nextLong()));
+				} else if (steps[0] % 5 == 0) {
+					model.tick();
+				} else {
+					int input = random.nextInt(20) == 0 ? TetrisInput.HARD_DROP.ordinal() : random.nextInt(4);
+					model.step(TetrisInput.values()[input]);
+				}
+				encodeNanos[0] += System.nanoTime() - t;
+				steps[0]++;
+				next += interval;
+			}
+		}, "player");
+		player.start();
+
+		long started = System.nanoTime();
+		long lastSlowRead = started;
+		while (player.isAlive()) {
+			selector.select(20);
+			for (SelectionKey key : selector.selectedKeys()) {
+				Watcher w = (Watcher) key.attachment();
+				if (!w.slow) {
+					w.read();
+				}
+			}
+			selector.selectedKeys().clear();
+			// the slow watchers read a little twice a second
+			if (System.nanoTime() - lastSlowRead > 500000000L) {
+				for (int i = 0; i < slowCount; i++) {
+					watchers[i].read();
+				}
+				lastSlowRead = System.nanoTime();
+			}
+		}
+		double elapsed = (System.nanoTime() - started) / 1e9;
+		long resyncs = feed.getResyncs();
+
+		// the game has stopped, every watcher reads until it has the last frame or the time is up
+		long deadline = System.nanoTime() + 10000000000L;
+		player.join();
+		while (System.nanoTime() < deadline && !allAt(watchers, lastFrame[0])) {
+			selector.select(20);
+			for (SelectionKey key : selector.selectedKeys()) {
+				((Watcher) key.attachment()).read();
+			}
+			selector.selectedKeys().clear();
+		}
+
+		int mismatches = 0;
+		long messages = 0, bytes = 0;
+		for (Watcher w : watchers) {
+			if (!sameGame(model, w.state)) {
+				mismatches++;
+			}
+			messages += w.messages;
+			bytes += w.bytes;
+		}
+		long fastMessages = 0, fastBytes = 0;
+		for (int i = slowCount; i < watcherCount; i++) {
+			fastMessages += watchers[i].messages;
+			fastBytes += watchers[i].bytes;
+		}
+		System.out.printf("%d watchers (%d slow), %d steps in %.1fs, %.1fus per step on the model thread%n",
+				watcherCount, slowCount, steps[0], elapsed, encodeNanos[0] / 1e3 / steps[0]);
+		System.out.printf("messages delivered %d (%.0f/s), %.1f bytes per message to a fast watcher%n",
+				messages, messages / elapsed, fastBytes / (double) Math.max(1, fastMessages));
+		System.out.printf("slow watchers skipped ahead %d times, %d watchers differ from the model%n",
+				resyncs, mismatches);
+		feed.stop();
+		if (mismatches > 0)
+			System.exit(1);
+	}
+
+	private static boolean allAt(Watcher[] watchers, long frame) {
+		for (Watcher w : watchers) {
+			if (w.state.getFrame() != frame)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean sameGame(TetrisModel model, SpectatorState state) {
+		if (model.getRows() != state.getRows() || model.getColumns() != state.getColumns())
+			return false;
+		for (int i = 0; i < model.getRows(); i++) {
+			for (int j = 0; j < model.getColumns(); j++) {
+				if (model.blockAt(i, j) != state.blockAt(i, j))
+					return false;
+			}
+		}
+		if (model.getNextCount() != state.getNextCount() || model.getHeldType() != state.getHeldType())
+			return false;
+		for (int i = 0; i < model.getNextCount(); i++) {
+			if (model.getNextType(i) != state.getNextType(i))
+				return false;
+		}
+		TetrisStats a = model.getGameStats(), b = state.getStats();
+		return a.getScore() == b.getScore() && a.getLinesCleared() == b.getLinesCleared()
+				&& a.getLevel() == b.getLevel() && model.isGameInProgress() == state.isGameInProgress();
+	}
+
+}
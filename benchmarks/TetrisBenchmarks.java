@@ -0,0 +1,167 @@
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// benchmarks of the model and rendering paths used by the bot and the UI
+//
+// gradle :benchmarks:run                     runs everything
+// gradle :benchmarks:run --args='clearLines' runs the benchmarks whose name contains clearLines
+public class TetrisBenchmarks {
+
+	public static void main(String[] args) {
+		BenchmarkHarness harness = new BenchmarkHarness(args);
+
+		TetrisModel model = newGame();
+		TetrisBoard board = model.getBoard();
+		TetrisBoard midGame = BoardFixtures.midGame();
+		board.copyFrom(midGame);
+
+		// blocks spread over the board, some resting on the stack and some in open space
+		Block[] blocks = new Block[8];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = new Block(i % 7 + 1, 4 + i, i % 7, i % 4);
+		}
+		int[] next = new int[1];
+
+		harness.run("validPosition", () -> {
+			return model.validPosition(blocks[next[0]++ & 7]) ? 1 : 0;
+		});
+		harness.run("hitBlock", () -> {
+			return blocks[next[0]++ & 7].hitBlock(board) ? 1 : 0;
+		});
+		harness.run("canRotate", () -> {
+			return blocks[next[0]++ & 7].canRotate(board) ? 1 : 0;
+		});
+		harness.run("rotate", () -> {
+			Block b = blocks[next[0]++ & 7];
+			b.rotate();
+			return b.getOrientation();
+		});
+
+		// clearing lines changes the board, so every operation starts by restoring it
+		harness.run("clearLines.restoreOnly", () -> {
+			board.copyFrom(midGame);
+			return board.getRowMask(20);
+		});
+		for (int lines = 0; lines <= 4; lines++) {
+			TetrisBoard fixture = BoardFixtures.withFullRows(lines);
+			harness.run("clearLines." + lines, () -> {
+				board.copyFrom(fixture);
+				model.clearLines();
+				return board.getRowMask(20);
+			});
+		}
+
+		// garbage rows rising under the mid game stack in a versus game
+		for (int lines : new int[] { 1, 4 }) {
+			long[] garbage = new long[lines];
+			Arrays.fill(garbage, board.getFullRow() & ~(1L << 3));
+			harness.run("pushGarbage." + lines, () -> {
+				board.copyFrom(midGame);
+				board.pushGarbage(garbage);
+				return board.getRowMask(20);
+			});
+		}
+
+		board.copyFrom(midGame);
+		Block current = model.getCurrentBlock();
+		harness.run("updatedShadowBlock", () -> {
+			Block b = blocks[next[0]++ & 7];
+			current.setCol(b.getCol());
+			current.setOrientation(b.getOrientation());
+			return model.updatedShadowBlock().getRow();
+		});
+
+		Block dropped = new Block(Block.T_BLOCK);
+		harness.run("hardDrop", () -> {
+			board.copyFrom(midGame);
+			dropped.setRow(0);
+			dropped.setCol(next[0]++ & 7);
+			dropped.setActive(true);
+			model.setCurrentBlock(dropped);
+			model.hardDrop();
+			return model.getCurrentBlock().getBlockType();
+		});
+
+		// the same moves on bigger boards, a wide one that still fits a row in one long and a tall one
+		// for every size, so the cost of the board size itself can be told apart from the rest
+		int[][] sizes = { { TetrisBoard.ROWS, TetrisBoard.COLUMNS }, { 40, 64 }, { 1000, 10 } };
+		for (int[] size : sizes) {
+			String name = "board." + size[0] + "x" + size[1];
+			TetrisModel sized = newGame(size[0], size[1]);
+			TetrisBoard sizedBoard = sized.getBoard();
+			TetrisBoard stack = BoardFixtures.withFullRows(size[0], size[1], 0);
+			Block sizedBlock = new Block(Block.T_BLOCK);
+			harness.run(name + ".hardDrop", () -> {
+				sizedBoard.copyFrom(stack);
+				sizedBlock.setRow(0);
+				sizedBlock.setCol(next[0]++ & 7);
+				sizedBlock.setActive(true);
+				sized.setCurrentBlock(sizedBlock);
+				sized.hardDrop();
+				return sized.getCurrentBlock().getBlockType();
+			});
+			TetrisBoard fourLines = BoardFixtures.withFullRows(size[0], size[1], 4);
+			harness.run(name + ".clearLines.4", () -> {
+				sizedBoard.copyFrom(fourLines);
+				sizedBlock.setRow(size[0] - 4);
+				sized.setCurrentBlock(sizedBlock);
+				sized.clearLines();
+				return sizedBoard.getRowMask(size[0] - 1) == 0 ? 0 : 1;
+			});
+		}
+
+		// undo in practice games, saving again only copies the rows that changed since the last save
+		// and restoring only writes the rows that differ
+		TetrisModel saving = newGame();
+		saving.getBoard().copyFrom(midGame);
+		TetrisModel.Snapshot before = saving.save();
+		saving.hardDrop();
+		TetrisModel.Snapshot after = saving.save();
+		harness.run("snapshot.save", () -> saving.save().getScore());
+		int[] restores = {0};
+		harness.run("snapshot.restore", () -> {
+			saving.restore((restores[0]++ & 1) == 0 ? before : after);
+			return saving.getCurrentBlock().getBlockType();
+		});
+
+		// the game view without a window, drawn into an image
+		// once filling every square with its color, then copying the squares from each skin's tiles
+		TetrisModel painted = newGame();
+		painted.getBoard().copyFrom(midGame);
+		TetrisRenderer renderer = new TetrisRenderer(painted, new Font("Futura", Font.PLAIN, 24));
+		BufferedImage image = new BufferedImage(620, 660, BufferedImage.TYPE_INT_RGB);
+		TileAtlas.Skin[] skins = {null, TileAtlas.Skin.FLAT, TileAtlas.Skin.BEVELED};
+		for (TileAtlas.Skin skin : skins) {
+			String name = skin == null ? "fillRect" : "tiles." + skin.name().toLowerCase();
+			renderer.setSkin(skin);
+			Graphics2D g = image.createGraphics();
+			harness.run("paint." + name, () -> {
+				renderer.paint(g);
+				return image.getRGB(15, 15);
+			});
+			// a block moving one column only repaints the squares it left and entered
+			Graphics2D moved = image.createGraphics();
+			moved.setClip(90, 0, 150, 60);
+			harness.run("paint.dirtyRegion." + name, () -> {
+				renderer.paint(moved);
+				return image.getRGB(105, 15);
+			});
+			moved.dispose();
+			g.dispose();
+		}
+	}
+
+	private static TetrisModel newGame() {
+		return newGame(TetrisBoard.ROWS, TetrisBoard.COLUMNS);
+	}
+
+	private static TetrisModel newGame(int rows, int columns) {
+		TetrisModel model = new TetrisModel();
+		model.setBoardSize(rows, columns);
+		model.setUpGame(800, new BagRandomizer(1, 42));
+		return model;
+	}
+
+}
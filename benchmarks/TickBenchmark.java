@@ -0,0 +1,56 @@
+import java.util.Random;
+
+// measures how fast the headless model can be simulated on one core
+// the target is at least 1,000,000 ticks per second on a plain Linux machine
+//
+// run from the repository root:
+//   javac -d out *.java benchmarks/*.java && java -cp out TickBenchmark [seconds]
+public class TickBenchmark {
+
+	static final long TARGET_TICKS_PER_SECOND = 1000000;
+
+	private static final TetrisInput[] INPUTS = TetrisInput.values();
+
+	private static long games, lines;
+
+	public static void main(String[] args) {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		Random random = new Random(42);
+
+		// warm up before measuring
+		simulate(random, 2000000000L);
+		games = 0;
+		lines = 0;
+
+		long start = System.nanoTime();
+		long ticks = simulate(random, seconds * 1000000000L);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		long perSecond = (long) (ticks / elapsed);
+		System.out.println("games:            " + games);
+		System.out.println("lines cleared:    " + lines);
+		System.out.println("ticks:            " + ticks);
+		System.out.println("ticks per second: " + perSecond
+				+ (perSecond >= TARGET_TICKS_PER_SECOND ? " (meets target)" : " (BELOW TARGET)"));
+	}
+
+	// plays whole games until the time is up, returns the number of ticks simulated
+	private static long simulate(Random random, long nanos) {
+		long ticks = 0;
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end) {
+			TetrisModel model = new TetrisModel();
+			model.setUpGame(800, new BagRandomizer(1, random.nextLong()));
+			// one player input on average every four ticks, like a fast bot
+			while (model.isGameInProgress()) {
+				if (random.nextInt(4) == 0) {
+					model.step(INPUTS[random.nextInt(INPUTS.length)]);
+				}
+				model.tick();
+				ticks++;
+			}
+			lines += model.getGameStats().getLinesCleared();
+			games++;
+		}
+		return ticks;
+	}
+}